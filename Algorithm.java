@@ -1,696 +1,2381 @@
-import java.nio.file.DirectoryStream;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Objects;
-import java.util.Scanner;
-import java.util.Set;
-import java.util.StringTokenizer;
-import java.util.function.Function;
-
-public class Algorithm {
-
-    private static final String EPSILON_CHAR = "?";
-    private static final String START_VARIABLE = "Z";
-    private static final String SPECIAL_CHAR = "\u10FD";
-    private static final boolean LOG_ENABLE = false;
-
-    private static class Rule {
-        public String variable;
-        public boolean isStarting;
-        public List<String> rightSideTerms = new ArrayList<>();
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (!(o instanceof Rule)) return false;
-            Rule rule = (Rule) o;
-            return isStarting == rule.isStarting &&
-                       Objects.equals(variable, rule.variable) &&
-                       Objects.equals(rightSideTerms, rule.rightSideTerms);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(variable, isStarting, rightSideTerms);
-        }
-    }
-
-    private List<String> inputData = new ArrayList<>();
-    private List<String> terminals = new ArrayList<>();
-    private List<String> variables = new ArrayList<>();
-    private List<String> newVariables;
-    private List<Rule> rules = new ArrayList<>();
-    private List<Rule> newRules = new ArrayList<>();
-
-    public void start() {
-        readData();
-        toCNF();
-        toGNF();
-    }
-
-    private void toCNF() {
-        addNewStartRule();
-        removeNullProductions();
-        removeUnitProductions();
-        handelMoreThanTwoCharacters();
-        handleTwoCharacters();
-        printGrammar(rules);
-    }
-
-    private void toGNF() {
-        changeVariables();
-        printGrammar(newRules);
-        alterBadRules();
-        printGrammar(newRules);
-        removeLeftRecursion();
-        printGrammar(newRules);
-        lastStep();
-        printGrammar(newRules);
-    }
-
-    private void readData() {
-        Scanner scanner = new Scanner(System.in);
-        if (LOG_ENABLE) System.out.println("Please Enter Rules Count");
-        int ruleCount = scanner.nextInt();
-        for (int i = 0; i < ruleCount; i++) {
-            if (LOG_ENABLE) System.out.println("Please Enter Rule #" + (i + 1));
-            inputData.add(scanner.next());
-        }
-
-        boolean isFirst = true;
-        for (String input : inputData) {
-            StringTokenizer t1 = new StringTokenizer(input, "->");
-            String var = t1.nextToken();
-            StringTokenizer t2 = new StringTokenizer(t1.nextToken(), "|");
-            List<String> terms = new ArrayList<>();
-            while (t2.hasMoreTokens()) {
-                terms.add(t2.nextToken());
-            }
-
-            boolean ruleFound = false;
-            for (Rule rule : rules) {
-                if (rule.variable.equals(var)) {
-                    rule.rightSideTerms.addAll(terms);
-                    ruleFound = true;
-                    break;
-                }
-            }
-
-            if (!ruleFound) {
-                Rule rule = new Rule();
-                rule.isStarting = isFirst;
-                rule.rightSideTerms = terms;
-                rule.variable = var;
-                rules.add(rule);
-            }
-            isFirst = false;
-        }
-
-        initVariablesAndTerminals();
-        removeUnnecessaryProductions();
-        cleanRefreshRules();
-    }
-
-    private void addNewStartRule() {
-        String startingRule = rules.get(0).variable;
-        boolean occurredInRightSide = false;
-        for (Rule rule : rules) {
-            for (String term : rule.rightSideTerms) {
-                if (term.contains(startingRule)) {
-                    occurredInRightSide = true;
-                    break;
-                }
-            }
-        }
-
-        if (!occurredInRightSide) return;
-
-        Rule rule = new Rule();
-        List<String> terms = new ArrayList<>();
-        terms.add(rules.get(0).variable);
-        rule.variable = START_VARIABLE;
-        rule.rightSideTerms = terms;
-        rule.isStarting = true;
-        rules.get(0).isStarting = false;
-        rules.add(0, rule);
-    }
-
-    private void removeUnitProductions() {
-        boolean shouldContinue = true;
-        while (shouldContinue) {
-            shouldContinue = false;
-            for (Rule rule : rules) {
-                List<String> allVars = new ArrayList<>();
-                for (String term : rule.rightSideTerms) {
-                    if (variables.contains(term)) {
-                        allVars.add(term);
-                    }
-                }
-
-                List<String> shouldAddTerms = new ArrayList<>();
-                for (String var : allVars) {
-                    Rule currentRule = findRuleWithVar(var);
-                    for (String term : currentRule.rightSideTerms) {
-                        shouldAddTerms.add(term);
-                        shouldContinue = true;
-                    }
-                }
-
-                rule.rightSideTerms.addAll(shouldAddTerms);
-                rule.rightSideTerms.removeAll(allVars);
-            }
-
-            cleanRefreshRules();
-        }
-
-        removeUnnecessaryProductions();
-        cleanRefreshRules();
-    }
-
-    private void removeNullProductions() {
-        boolean shouldContinue = true;
-        while (shouldContinue) {
-            shouldContinue = false;
-            List<Rule> zeroProductionRules = new ArrayList<>();
-            for (Rule rule : rules) {
-                if (!rule.isStarting && rule.rightSideTerms.contains(EPSILON_CHAR)) {
-                    zeroProductionRules.add(rule);
-                }
-            }
-            for (Rule zeroProductRule : zeroProductionRules) {
-                for (Rule rule : rules) {
-                    List<String> newTerms = new ArrayList<>();
-                    for (String term : rule.rightSideTerms) {
-                        if (term.contains(zeroProductRule.variable)) {
-                            shouldContinue = true;
-                            List<Integer> indexes = findIndexesOf(term, zeroProductRule.variable);
-
-                            int n = indexes.size();
-                            for (int i = 0; i < (1 << n); i++) {
-                                List<Integer> shouldChangeIndexes = new ArrayList<>();
-                                for (int j = 0; j < n; j++) {
-                                    if ((i & (1 << j)) > 0) {
-                                        shouldChangeIndexes.add(indexes.get(j));
-                                    }
-                                }
-
-                                StringBuilder builder = new StringBuilder(term);
-                                for (int changeIndex : shouldChangeIndexes) {
-                                    builder.setCharAt(changeIndex, EPSILON_CHAR.charAt(0));
-                                }
-
-                                String replacedEpsilonTerm = builder.toString().replace(EPSILON_CHAR, "");
-                                if (replacedEpsilonTerm.length() == 0) {
-                                    newTerms.add(EPSILON_CHAR);
-                                } else {
-                                    newTerms.add(replacedEpsilonTerm);
-                                }
-                            }
-                        }
-                    }
-
-                    rule.rightSideTerms.addAll(newTerms);
-                    removeDuplicates(rule.rightSideTerms);
-                }
-
-                zeroProductRule.rightSideTerms.remove(EPSILON_CHAR);
-                cleanRefreshRules();
-            }
-        }
-    }
-
-    private void handelMoreThanTwoCharacters() {
-        List<String> notUsed = readNotUsedChars();
-        int count = 0;
-        boolean shouldRepeat = true;
-        while (shouldRepeat) {
-            shouldRepeat = false;
-            List<Rule> addingRules = new ArrayList<>();
-            for (Rule rule : rules) {
-                for (int i = 0; i < rule.rightSideTerms.size(); i++) {
-                    String term = rule.rightSideTerms.get(i);
-                    if (term.length() > 2) {
-                        String t1 = term.charAt(0) + "";
-                        String t2 = term.substring(1);
-
-                        Rule foundRule = findRuleWithJustTerm(addingRules, t2);
-                        if (foundRule == null) {
-                            List<String> terms = new ArrayList<>();
-                            terms.add(t2);
-                            Rule newRule = new Rule();
-                            newRule.isStarting = false;
-                            newRule.variable = notUsed.get(count);
-                            newRule.rightSideTerms = terms;
-                            addingRules.add(newRule);
-
-                            rule.rightSideTerms.set(i, t1 + notUsed.get(count));
-                        } else {
-                            rule.rightSideTerms.set(i, t1 + foundRule.variable);
-                        }
-                        shouldRepeat = true;
-                        count++;
-                    }
-                }
-            }
-
-            rules.addAll(addingRules);
-            initVariablesAndTerminals();
-        }
-
-    }
-
-    private void handleTwoCharacters() {
-        List<String> notUsed = readNotUsedChars();
-
-        int count = 0;
-        boolean shouldRepeat = true;
-        while (shouldRepeat) {
-            shouldRepeat = false;
-            List<Rule> addingRules = new ArrayList<>();
-            for (Rule rule : rules) {
-                for (int i = 0; i < rule.rightSideTerms.size(); i++) {
-                    String term = rule.rightSideTerms.get(i);
-
-                    if (term.length() <= 1) {
-                        continue;
-                    }
-
-                    String t1 = term.charAt(0) + "";
-                    String t2 = term.charAt(1) + "";
-
-                    boolean isT1Var = variables.contains(t1);
-                    boolean isT2Var = variables.contains(t2);
-
-                    if (term.length() == 2 && (!isT1Var || !isT2Var)) {
-
-                        if (!isT1Var) {
-                            Rule foundRule = findRuleWithJustTerm(addingRules, t1);
-                            if (foundRule == null) {
-                                List<String> terms = new ArrayList<>();
-                                terms.add(t1);
-                                Rule newRule = new Rule();
-                                newRule.isStarting = false;
-                                newRule.variable = notUsed.get(count);
-                                newRule.rightSideTerms = terms;
-
-                                addingRules.add(newRule);
-
-                                rule.rightSideTerms.set(i, notUsed.get(count) + t2);
-                            } else {
-                                rule.rightSideTerms.set(i, foundRule.variable + t2);
-                            }
-                        }
-
-                        if (!isT2Var) {
-                            Rule foundRule = findRuleWithJustTerm(addingRules, t2);
-                            if (foundRule == null) {
-                                List<String> terms = new ArrayList<>();
-                                terms.add(t2);
-                                Rule newRule = new Rule();
-                                newRule.isStarting = false;
-                                newRule.variable = notUsed.get(count);
-                                newRule.rightSideTerms = terms;
-
-                                addingRules.add(newRule);
-
-                                rule.rightSideTerms.set(i, t1 + notUsed.get(count));
-                            } else {
-                                rule.rightSideTerms.set(i, t1 + foundRule.variable);
-                            }
-                        }
-
-
-                        shouldRepeat = true;
-                        count++;
-                    }
-                }
-            }
-
-            rules.addAll(addingRules);
-            initVariablesAndTerminals();
-        }
-
-    }
-
-    private void changeVariables() {
-        newVariables = new ArrayList<>(variables);
-        int count = 0;
-
-        for (Rule rule : rules) {
-            List<String> terms = new ArrayList<>();
-            terms.add(rule.variable);
-            terms.addAll(rule.rightSideTerms);
-            for (String term : terms) {
-                for (int i = 0; i < term.length(); i++) {
-                    String currentChar = String.valueOf(term.charAt(i));
-                    int index = variables.indexOf(currentChar);
-                    if (index != -1) {
-                        if (!newVariables.get(index).contains("[")) {
-                            newVariables.set(index, SPECIAL_CHAR + "[" + count + "]");
-                            count++;
-                        }
-                    }
-                }
-            }
-        }
-
-        for (Rule rule : rules) {
-            Rule newRule = new Rule();
-            newRule.isStarting = rule.isStarting;
-            newRule.variable = newVariables.get(variables.indexOf(rule.variable));
-            List<String> newTerms = new ArrayList<>();
-            for (String term : rule.rightSideTerms) {
-                String newTerm = term;
-                for (String var : variables) {
-                    newTerm = newTerm.replace(var, newVariables.get(variables.indexOf(var)));
-                }
-                newTerms.add(newTerm);
-            }
-            newRule.rightSideTerms = newTerms;
-
-            newRules.add(newRule);
-        }
-    }
-
-    private void alterBadRules() {
-        boolean shouldContinue = true;
-        while (shouldContinue) {
-            shouldContinue = false;
-            for (Rule rule : newRules) {
-                int i = findSubscriptOfVar(rule.variable);
-
-                List<String> addingTerms = new ArrayList<>();
-                List<String> removingTerms = new ArrayList<>();
-
-                for (String term : rule.rightSideTerms) {
-
-                    if (term.startsWith(SPECIAL_CHAR)) {
-
-                        int j = findSubscriptOfVar(term);
-
-                        String shouldAppend = term.substring(term.indexOf("]") + 1);
-
-                        if (i > j) {
-
-                            removingTerms.add(term);
-                            Rule ruleJ = findNewRuleWithNum(j);
-                            for (String termInJ : ruleJ.rightSideTerms) {
-                                addingTerms.add(termInJ + shouldAppend);
-                            }
-
-                            shouldContinue = true;
-
-                        }
-                    }
-                }
-
-                rule.rightSideTerms.removeAll(removingTerms);
-                rule.rightSideTerms.addAll(addingTerms);
-                removeDuplicates(rule.rightSideTerms);
-            }
-        }
-    }
-
-    private int findSubscriptOfVar(String name) {
-        int firstSubscriptStartIndex = name.indexOf("[") + 1;
-        int firstSubscriptEndIndex = name.indexOf("]");
-        String firstSubscript = name.substring(firstSubscriptStartIndex, firstSubscriptEndIndex);
-        return Integer.parseInt(firstSubscript);
-    }
-
-    private void removeLeftRecursion() {
-        List<String> notUsed = new ArrayList<>();
-        int count = 0;
-        for (int i = 'A'; i <= 'Z'; i++) {
-            notUsed.add(String.valueOf((char) i));
-        }
-
-        List<Rule> addingRules = new ArrayList<>();
-
-        for (Rule rule : newRules) {
-            int i = findSubscriptOfVar(rule.variable);
-
-            List<String> removingTerms = new ArrayList<>();
-            List<String> addingTerms = new ArrayList<>();
-
-            for (String term : rule.rightSideTerms) {
-
-                if (term.startsWith(SPECIAL_CHAR)) {
-
-                    int j = findSubscriptOfVar(term);
-
-                    String continuee = term.substring(term.indexOf("]") + 1);
-
-                    if (i == j) {
-                        String varName = notUsed.get(count);
-                        List<String> rightSideTerms = new ArrayList<>();
-                        rightSideTerms.add(continuee + varName);
-                        rightSideTerms.add(continuee);
-
-                        Rule newRule = new Rule();
-                        newRule.variable = varName;
-                        newRule.isStarting = false;
-                        newRule.rightSideTerms = rightSideTerms;
-                        addingRules.add(newRule);
-
-                        for (String termInRule : rule.rightSideTerms) {
-                            if (termInRule.equals(term)) continue;
-
-                            addingTerms.add(termInRule + varName);
-                        }
-
-                        removingTerms.add(term);
-                        count++;
-                    }
-                }
-            }
-
-            rule.rightSideTerms.removeAll(removingTerms);
-            rule.rightSideTerms.addAll(addingTerms);
-        }
-
-        newRules.addAll(addingRules);
-    }
-
-    private void lastStep() {
-
-        int count = 0;
-        for (Rule rule : newRules) {
-            if (rule.variable.startsWith(SPECIAL_CHAR)) {
-                count++;
-            }
-        }
-
-        List<Rule> orderedRules = new ArrayList<>();
-        for (int i = count - 1; i >= 0; i--) {
-            orderedRules.add(findNewRuleWithNum(i));
-        }
-
-        for (Rule rule : newRules) {
-            if (!rule.variable.startsWith(SPECIAL_CHAR)) {
-                orderedRules.add(rule);
-            }
-        }
-
-
-        // TODO : if this solution was not ok i can use while loop with a variable that show if loop should continue
-        for (Rule rule : orderedRules) {
-            List<String> removingTerms = new ArrayList<>();
-            List<String> addingTerms = new ArrayList<>();
-
-            for (String term : rule.rightSideTerms) {
-                if (term.startsWith(SPECIAL_CHAR)) {
-                    int j = findSubscriptOfVar(term);
-                    String continuee = term.substring(term.indexOf("]") + 1);
-                    Rule cRule = findNewRuleWithVar(SPECIAL_CHAR + "[" + j + "]");
-                    for (String termInRule : cRule.rightSideTerms) {
-                        addingTerms.add(termInRule + continuee);
-                    }
-
-                    removingTerms.add(term);
-
-                }
-            }
-
-            rule.rightSideTerms.removeAll(removingTerms);
-            rule.rightSideTerms.addAll(addingTerms);
-        }
-    }
-
-    private Rule findNewRuleWithVar(String var) {
-        for (Rule rule : newRules) {
-            if (rule.variable.equals(var)) {
-                return rule;
-            }
-        }
-        return null;
-    }
-
-    private List<String> readNotUsedChars() {
-        List<String> notUsed = new ArrayList<>();
-
-        for (int i = 'A'; i <= 'Z'; i++) {
-            String stChar = String.valueOf((char) i);
-            boolean used = false;
-            for (Rule rule : rules) {
-                if (rule.variable.equals(stChar)) {
-                    used = true;
-                    break;
-                }
-            }
-
-            if (!used) {
-                notUsed.add(String.valueOf((char) i));
-            }
-        }
-
-        return notUsed;
-    }
-
-    private void cleanRefreshRules() {
-        for (Rule rule : rules) {
-            removeDuplicates(rule.rightSideTerms);
-        }
-        rules.removeIf(rule -> rule.rightSideTerms.size() == 0);
-        initVariablesAndTerminals();
-    }
-
-    private void removeUnnecessaryProductions() {
-        rules.removeIf(rule -> !isAccessible(rules.get(0).variable, rule.variable));
-    }
-
-    private boolean isAccessible(String fromVar, String toVar) {
-
-        Rule ruleWithVar = findRuleWithVar(fromVar);
-        Set<String> allChars = new HashSet<>();
-        allChars.add(fromVar);
-        Set<String> newChars = new HashSet<>();
-        while (true) {
-            newChars = new HashSet<>();
-            newChars.addAll(allChars);
-
-            for (String ch : allChars) {
-                Rule rule = findRuleWithVar(ch);
-                for (String st : rule.rightSideTerms) {
-                    for (String var : variables) {
-                        if (st.contains(var)) {
-                            newChars.add(var);
-                        }
-                    }
-                }
-            }
-
-            if (allChars.equals(newChars)) {
-                break;
-            }
-
-            allChars = newChars;
-        }
-
-        if (allChars.contains(toVar)) {
-            return true;
-        } else {
-            return false;
-        }
-    }
-
-    private boolean canGenerateTerminals(String fromVar) {
-        return true;
-    }
-
-    private void printGrammar(List<Rule> rules) {
-        for (Rule rule : rules) {
-            System.out.print(rule.variable);
-            System.out.print("->");
-            for (int i = 0; i < rule.rightSideTerms.size(); i++) {
-                if (i != 0) {
-                    System.out.print("|");
-                }
-                System.out.print(rule.rightSideTerms.get(i));
-            }
-            System.out.println();
-        }
-        System.out.println();
-    }
-
-    private Rule findRuleWithJustTerm(List<Rule> smallRules, String term) {
-
-        List<Rule> newRules = new ArrayList<>();
-        newRules.addAll(rules);
-        newRules.addAll(smallRules);
-
-        for (Rule rule : newRules) {
-            if (rule.rightSideTerms.size() > 1) continue;
-            String t = rule.rightSideTerms.get(0);
-            if (t.equals(term)) {
-                return rule;
-            }
-        }
-        return null;
-    }
-
-    private Rule findRuleWithVar(String var) {
-        for (Rule rule : rules) {
-            if (rule.variable.equals(var)) {
-                return rule;
-            }
-        }
-        return null;
-    }
-
-    private Rule findNewRuleWithNum(int num) {
-        for (Rule rule : newRules) {
-            if (rule.variable.contains(String.valueOf(num))) {
-                return rule;
-            }
-        }
-        return null;
-    }
-
-    private void removeDuplicates(List<String> list) {
-        Set<String> set = new HashSet<>(list);
-        list.clear();
-        list.addAll(set);
-    }
-
-    private void initVariablesAndTerminals() {
-        initVariablesAndTerminals(rules);
-    }
-
-    private void initVariablesAndTerminals(List<Rule> rules) {
-        variables.clear();
-        terminals.clear();
-
-        for (Rule rule : rules) {
-            variables.add(rule.variable);
-        }
-
-        for (Rule rule : rules) {
-            for (String term : rule.rightSideTerms) {
-                for (int i = 0; i < term.length(); i++) {
-                    String stChar = String.valueOf(term.charAt(i));
-                    if (!variables.contains(stChar) && !stChar.equals(EPSILON_CHAR) && !terminals.contains(stChar)) {
-                        terminals.add(stChar);
-                    }
-                }
-            }
-        }
-    }
-
-    private List<Integer> findIndexesOf(String in, String of) {
-        List<Integer> indexes = new ArrayList<>();
-        int index = in.indexOf(of);
-        if (index != -1)
-            indexes.add(index);
-        while (index >= 0) {
-            index = in.indexOf(of, index + 1);
-            if (index != -1) {
-                indexes.add(index);
-            }
-        }
-        return indexes;
-    }
-}
\ No newline at end of file
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.StringTokenizer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+public class Algorithm {
+
+    public enum GnfMode {
+        SUBSTITUTION,
+        LEFT_CORNER
+    }
+
+    public enum SubscriptOrder {
+        FIRST_APPEARANCE,
+        LEFT_CORNER
+    }
+
+    private static final String EPSILON_CHAR = "?";
+    private static final String START_VARIABLE = "Z";
+    private static final String SPECIAL_CHAR = "\u10FD";
+    private static final boolean LOG_ENABLE = false;
+    private static final int[] EPSILON = new int[0];
+    private static final byte[] ARROW = "->".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EPSILON_BYTES = EPSILON_CHAR.getBytes(StandardCharsets.US_ASCII);
+
+    private static class Rule {
+        public int variable;
+        public boolean isStarting;
+        public TermSet rightSideTerms = new TermSet();
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Rule)) return false;
+            Rule rule = (Rule) o;
+            if (isStarting != rule.isStarting || variable != rule.variable) return false;
+            if (rightSideTerms.size() != rule.rightSideTerms.size()) return false;
+            for (int i = 0; i < rightSideTerms.size(); i++) {
+                if (!Arrays.equals(rightSideTerms.get(i), rule.rightSideTerms.get(i))) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = 31 * variable + (isStarting ? 1 : 0);
+            for (int[] term : rightSideTerms) {
+                result = 31 * result + Arrays.hashCode(term);
+            }
+            return result;
+        }
+    }
+
+    // Per-rule results of the previous conversion, keyed by symbol id. Only valid across conversions
+    // that share one SymbolTable, see IncrementalConverter.
+    static class Memo {
+        private BitSet nullable = new BitSet();
+        private Snapshot[] nullSteps = new Snapshot[0];
+        private Snapshot[] badRuleSteps = new Snapshot[0];
+        private Snapshot[] lastSteps = new Snapshot[0];
+        private long reused;
+        private long recomputed;
+
+        long getReused() {
+            return reused;
+        }
+
+        long getRecomputed() {
+            return recomputed;
+        }
+
+        private static Snapshot get(Snapshot[] steps, int variable) {
+            return variable < steps.length ? steps[variable] : null;
+        }
+    }
+
+    private static class Snapshot {
+        final boolean isStarting;
+        final int subscript;
+        final int order;
+        final List<int[]> input;
+        Collection<int[]> output;
+
+        Snapshot(Rule rule, int subscript, int order) {
+            this.isStarting = rule.isStarting;
+            this.subscript = subscript;
+            this.order = order;
+            this.input = new ArrayList<>(rule.rightSideTerms);
+        }
+
+        boolean hasInput(Rule rule, int subscript) {
+            if (rule.isStarting != isStarting || subscript != this.subscript) return false;
+            if (rule.rightSideTerms.size() != input.size()) return false;
+            for (int i = 0; i < input.size(); i++) {
+                if (!Arrays.equals(rule.rightSideTerms.get(i), input.get(i))) return false;
+            }
+            return true;
+        }
+    }
+
+    private static class RuleIndex {
+        private Rule[] rulesByKey = new Rule[16];
+
+        public Rule get(int key) {
+            return key < rulesByKey.length ? rulesByKey[key] : null;
+        }
+
+        public void put(int key, Rule rule) {
+            if (key >= rulesByKey.length) {
+                rulesByKey = Arrays.copyOf(rulesByKey, Math.max(key + 1, rulesByKey.length * 2));
+            }
+            rulesByKey[key] = rule;
+        }
+
+        public void remove(int key, Rule rule) {
+            if (get(key) == rule) {
+                rulesByKey[key] = null;
+            }
+        }
+    }
+
+    private static class LevelTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] indexes;
+        private final int from;
+        private final int to;
+        private final IntConsumer task;
+
+        LevelTask(int[] indexes, int from, int to, IntConsumer task) {
+            this.indexes = indexes;
+            this.from = from;
+            this.to = to;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                task.accept(indexes[from]);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new LevelTask(indexes, from, middle, task), new LevelTask(indexes, middle, to, task));
+        }
+    }
+
+    private final GrammarReader reader;
+    private final BinaryGrammar binaryInput;
+    private final Grammar grammarInput;
+    private final GrammarWriter writer;
+    private boolean printIntermediate = true;
+    private ConversionListener listener;
+    private ConversionCache cache;
+    private Memo memo;
+    private GnfMode gnfMode = GnfMode.SUBSTITUTION;
+    private SubscriptOrder subscriptOrder = SubscriptOrder.FIRST_APPEARANCE;
+    private boolean streamOutput;
+    private ForkJoinPool pool;
+    private ConversionBudget budget;
+    private long budgetStart;
+    private final AtomicLong grownProductions = new AtomicLong();
+    private final AtomicLong grownSymbols = new AtomicLong();
+    private String currentPhase;
+    private List<int[]> recordedStages;
+    private BinaryGrammar.Form binaryForm;
+    private Path binaryPath;
+    private int finalStages;
+    private List<Rule> cnfStage;
+    private List<Rule> gnfStage;
+    private int iterations;
+    private final SymbolTable symbols;
+    private List<String> inputData = new ArrayList<>();
+    private BitSet terminals = new BitSet();
+    private BitSet variables = new BitSet();
+    private int[] subscripts = new int[0];
+    private List<Rule> rules = new ArrayList<>();
+    private List<Rule> newRules = new ArrayList<>();
+    private final RuleIndex ruleIndex = new RuleIndex();
+    private final RuleIndex newRuleIndex = new RuleIndex();
+    private final RuleIndex subscriptIndex = new RuleIndex();
+    private final Map<IntBuffer, Rule> justTermIndex = new HashMap<>();
+
+    public Algorithm() {
+        this(System.in, System.out);
+    }
+
+    public Algorithm(InputStream in, OutputStream out) {
+        this(new GrammarReader(in), new GrammarWriter(out));
+    }
+
+    public Algorithm(GrammarReader reader, GrammarWriter writer) {
+        this(reader, writer, new SymbolTable());
+    }
+
+    Algorithm(GrammarReader reader, GrammarWriter writer, SymbolTable symbols) {
+        this.reader = reader;
+        this.binaryInput = null;
+        this.grammarInput = null;
+        this.writer = writer;
+        this.symbols = symbols;
+    }
+
+    // Reads the rules from a binary grammar of any form instead of the text format.
+    public Algorithm(BinaryGrammar input, GrammarWriter writer) {
+        this.reader = null;
+        this.binaryInput = input;
+        this.grammarInput = null;
+        this.writer = writer;
+        this.symbols = new SymbolTable();
+    }
+
+    // Reads the rules from input. A null writer prints nothing; the results are then taken from
+    // cnfGrammar() and gnfGrammar().
+    public Algorithm(Grammar input, GrammarWriter writer) {
+        this.reader = null;
+        this.binaryInput = null;
+        this.grammarInput = input;
+        this.writer = writer;
+        this.symbols = new SymbolTable();
+    }
+
+    public void setPrintIntermediate(boolean printIntermediate) {
+        this.printIntermediate = printIntermediate;
+    }
+
+    public void setListener(ConversionListener listener) {
+        this.listener = listener;
+    }
+
+    public void setCache(ConversionCache cache) {
+        this.cache = cache;
+    }
+
+    // Writes the final grammar while expanding it instead of building the last stage first; the
+    // output is the same, but gnfGrammar() is then null. Ignored when the cache or a memo needs the
+    // materialized rules, and when lastStep runs on a pool.
+    public void setStreamOutput(boolean streamOutput) {
+        this.streamOutput = streamOutput;
+    }
+
+    // Runs the substitutions of alterBadRules and lastStep on pool, one dependency level at a time.
+    // The output is identical to the sequential run; null (the default) runs them sequentially.
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // Also writes the grammar of the given form to path in the binary format: the input as read, the
+    // CNF or the final GNF. Writing the GNF keeps the last stage materialized, so it is not streamed.
+    public void setBinaryOutput(BinaryGrammar.Form form, Path path) {
+        this.binaryForm = form;
+        this.binaryPath = path;
+    }
+
+    // Aborts the conversion with a BudgetExceededException once it exceeds budget, or before
+    // alterBadRules and lastStep when their output is estimated to exceed it. null (the default)
+    // sets no limits. The time limit counts from here, so set the budget just before converting.
+    public void setBudget(ConversionBudget budget) {
+        this.budget = budget;
+        this.budgetStart = System.nanoTime();
+        this.currentPhase = "readData";
+    }
+
+    public void setGnfMode(GnfMode gnfMode) {
+        this.gnfMode = gnfMode;
+    }
+
+    // The order in which changeVariables numbers the variables for the substitution GNF; see
+    // leftCornerOrder. The default numbers them in order of first appearance. alterBadRules need not
+    // terminate with either order, so set a budget for grammars that are not known to convert.
+    public void setSubscriptOrder(SubscriptOrder subscriptOrder) {
+        this.subscriptOrder = subscriptOrder;
+    }
+
+    void setMemo(Memo memo) {
+        this.memo = memo;
+    }
+
+    public void start() {
+        readData();
+        if (binaryForm == BinaryGrammar.Form.RAW) {
+            writeBinary(encodeStage(rules, false));
+        }
+        convert();
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    // Runs toCNF and toGNF on the rules readData left, or replays them from the cache.
+    void convert() {
+        if (cache == null) {
+            toCNF();
+            toGNF();
+        } else {
+            convertCached();
+        }
+    }
+
+    void toCNF() {
+        runPhase("addNewStartRule", this::addNewStartRule, this::measureRules);
+        runPhase("removeNullProductions", this::removeNullProductions, this::measureRules);
+        runPhase("removeUnitProductions", this::removeUnitProductions, this::measureRules);
+        runPhase("handelMoreThanTwoCharacters", this::handelMoreThanTwoCharacters, this::measureRules);
+        runPhase("handleTwoCharacters", this::handleTwoCharacters, this::measureRules);
+        emitStage(rules, false);
+    }
+
+    void toGNF() {
+        if (gnfMode == GnfMode.LEFT_CORNER) {
+            runPhase("leftCornerGNF", this::leftCornerGNF, this::measureNewRules);
+            emitStage(newRules, false);
+            return;
+        }
+        runPhase("changeVariables", this::changeVariables, this::measureNewRules);
+        emitStage(newRules, true);
+        runPhase("alterBadRules", this::alterBadRules, this::measureNewRules);
+        emitStage(newRules, true);
+        runPhase("removeLeftRecursion", this::removeLeftRecursion, this::measureNewRules);
+        emitStage(newRules, true);
+        if (streamOutput && writer != null && pool == null && recordedStages == null && memo == null
+                && binaryForm != BinaryGrammar.Form.GNF) {
+            GrammarStats[] streamed = new GrammarStats[1];
+            runPhase("lastStep", () -> streamed[0] = printLastStep(), () -> streamed[0]);
+        } else {
+            runPhase("lastStep", this::lastStep, this::measureNewRules);
+            emitStage(newRules, false);
+        }
+    }
+
+    // The CNF emitted by the conversion, also when it was replayed from the cache.
+    public Grammar cnfGrammar() {
+        return toGrammar(cnfStage);
+    }
+
+    // The final GNF; null if it was streamed to the writer instead of materialized.
+    public Grammar gnfGrammar() {
+        return toGrammar(gnfStage);
+    }
+
+    private Grammar toGrammar(List<Rule> stage) {
+        if (stage == null) return null;
+        List<Grammar.Rule> converted = new ArrayList<>(stage.size());
+        for (Rule rule : stage) {
+            List<List<String>> productions = new ArrayList<>(rule.rightSideTerms.size());
+            for (int[] term : rule.rightSideTerms) {
+                List<String> production = new ArrayList<>(term.length);
+                for (int symbol : term) {
+                    production.add(symbols.nameOf(symbol));
+                }
+                productions.add(production);
+            }
+            converted.add(new Grammar.Rule(symbols.nameOf(rule.variable), productions));
+        }
+        return new Grammar(converted);
+    }
+
+    // Compiles the CNF emitted by toCNF, or replayed from the cache, for membership tests.
+    public CykRecognizer cnfRecognizer() {
+        return compileRecognizer(cnfStage != null ? cnfStage : rules, CykRecognizer::new);
+    }
+
+    // Compiles the GNF emitted by toGNF, or replayed from the cache; the last stage must have been
+    // materialized, so stream output has to be off.
+    public GnfRecognizer gnfRecognizer() {
+        return compileRecognizer(gnfStage != null ? gnfStage : newRules, GnfRecognizer::new);
+    }
+
+    // Prepares a generated recognizer for the same GNF as gnfRecognizer(), under the same conditions.
+    public RecognizerGenerator recognizerGenerator() {
+        return compileRecognizer(gnfStage != null ? gnfStage : newRules, RecognizerGenerator::new);
+    }
+
+    private interface RecognizerCompiler<R> {
+        R compile(int startRule, int[][][] terms, IntFunction<String> terminalName);
+    }
+
+    private <R> R compileRecognizer(List<Rule> rules, RecognizerCompiler<R> compiler) {
+        int[] ruleOf = new int[symbols.size()];
+        Arrays.fill(ruleOf, -1);
+        int startRule = -1;
+        for (int i = 0; i < rules.size(); i++) {
+            ruleOf[rules.get(i).variable] = i;
+            if (rules.get(i).isStarting) startRule = i;
+        }
+        return compiler.compile(startRule, indexTerms(rules, ruleOf), symbols::nameOf);
+    }
+
+    // The terms of rules with rule indexes for variables and ~symbol for terminals; ruleOf maps a
+    // variable to its index in rules.
+    private static int[][][] indexTerms(List<Rule> rules, int[] ruleOf) {
+        int[][][] terms = new int[rules.size()][][];
+        for (int i = 0; i < rules.size(); i++) {
+            List<int[]> rightSideTerms = rules.get(i).rightSideTerms;
+            terms[i] = new int[rightSideTerms.size()][];
+            for (int t = 0; t < terms[i].length; t++) {
+                int[] term = rightSideTerms.get(t).clone();
+                for (int k = 0; k < term.length; k++) {
+                    term[k] = ruleOf[term[k]] != -1 ? ruleOf[term[k]] : ~term[k];
+                }
+                terms[i][t] = term;
+            }
+        }
+        return terms;
+    }
+
+    // The first stage that is not intermediate is the CNF and the second the GNF, also when replayed
+    // from the cache.
+    private void emitStage(List<Rule> rules, boolean intermediate) {
+        if (recordedStages != null) {
+            recordedStages.add(encodeStage(rules, intermediate));
+        }
+        if (!intermediate) {
+            finalStages++;
+            if (finalStages == 1) {
+                cnfStage = rules;
+            } else {
+                gnfStage = rules;
+            }
+            if (binaryForm != null && finalStages == binaryForm.ordinal()) {
+                writeBinary(encodeStage(rules, false));
+            }
+        }
+        if (writer != null && (!intermediate || printIntermediate)) {
+            printGrammar(rules);
+        }
+    }
+
+    private void convertCached() {
+        int[] ruleOf = new int[symbols.size()];
+        Arrays.fill(ruleOf, -1);
+        for (int i = 0; i < rules.size(); i++) {
+            ruleOf[rules.get(i).variable] = i;
+        }
+        int[][][] terms = indexTerms(rules, ruleOf);
+        GrammarCanonicalizer.Result canonical = GrammarCanonicalizer.canonicalize(0, terms, symbols::nameOf);
+
+        int[] variableOfLabel = new int[rules.size()];
+        for (int i = 0; i < rules.size(); i++) {
+            variableOfLabel[canonical.labels[i]] = rules.get(i).variable;
+        }
+
+        String key = gnfMode == GnfMode.SUBSTITUTION ? canonical.key : canonical.key + "-" + gnfMode.ordinal();
+        if (gnfMode == GnfMode.SUBSTITUTION && subscriptOrder != SubscriptOrder.FIRST_APPEARANCE) {
+            key += "-order" + subscriptOrder.ordinal();
+        }
+        CachedConversion cached = cache.get(key);
+        if (cached != null) {
+            replay(cached, variableOfLabel);
+            return;
+        }
+
+        int[] labelOf = new int[symbols.size()];
+        Arrays.fill(labelOf, -1);
+        for (int label = 0; label < variableOfLabel.length; label++) {
+            labelOf[variableOfLabel[label]] = label;
+        }
+        int inputSymbols = symbols.size();
+        recordedStages = new ArrayList<>();
+        try {
+            toCNF();
+            toGNF();
+            cache.put(key, record(recordedStages, labelOf, inputSymbols));
+        } finally {
+            recordedStages = null;
+        }
+    }
+
+    private void writeBinary(int[] stage) {
+        try {
+            BinaryGrammar.write(binaryPath, BinaryGrammar.encode(binaryForm, stage, symbols::bytesOf));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private CachedConversion record(List<int[]> stages, int[] labelOf, int inputSymbols) {
+        BitSet used = new BitSet();
+        used.set(inputSymbols, symbols.size());
+        for (int[] stage : stages) {
+            CachedConversion.mapSymbols(stage, symbol -> {
+                used.set(symbol);
+                return symbol;
+            });
+        }
+
+        int freshStart = rules.isEmpty() || rules.get(0).variable < inputSymbols ? -1 : rules.get(0).variable;
+        int[] localOf = new int[symbols.size()];
+        int[] kinds = new int[used.cardinality()];
+        String[] names = new String[kinds.length];
+        int local = 0;
+        for (int symbol = used.nextSetBit(0); symbol >= 0; symbol = used.nextSetBit(symbol + 1)) {
+            String name = symbols.nameOf(symbol);
+            if (symbol < inputSymbols && labelOf[symbol] != -1) {
+                kinds[local] = labelOf[symbol];
+            } else if (symbol < inputSymbols || name.startsWith(SPECIAL_CHAR)) {
+                kinds[local] = CachedConversion.LITERAL;
+                names[local] = name;
+            } else {
+                kinds[local] = symbol == freshStart ? CachedConversion.FRESH_START : CachedConversion.FRESH;
+            }
+            localOf[symbol] = local++;
+        }
+
+        for (int[] stage : stages) {
+            CachedConversion.mapSymbols(stage, symbol -> localOf[symbol]);
+        }
+        return new CachedConversion(kinds, names, stages);
+    }
+
+    private void replay(CachedConversion cached, int[] variableOfLabel) {
+        int[] symbolOf = new int[cached.kinds.length];
+        for (int i = 0; i < symbolOf.length; i++) {
+            int kind = cached.kinds[i];
+            if (kind >= 0) {
+                symbolOf[i] = variableOfLabel[kind];
+            } else if (kind == CachedConversion.LITERAL) {
+                symbolOf[i] = symbols.intern(cached.names[i]);
+            } else if (kind == CachedConversion.FRESH_START) {
+                symbolOf[i] = symbols.freshVariable(START_VARIABLE);
+            } else {
+                symbolOf[i] = symbols.freshVariable();
+            }
+        }
+
+        for (int[] stored : cached.stages) {
+            int[] stage = stored.clone();
+            CachedConversion.mapSymbols(stage, symbol -> symbolOf[symbol]);
+            boolean intermediate = CachedConversion.isIntermediate(stage);
+            List<Rule> decoded = decodeStage(stage);
+            if (!intermediate) {
+                // The CNF and the GNF stay in memory for the recognizers, like newRules after lastStep.
+                for (Rule rule : decoded) {
+                    rule.rightSideTerms.freeze();
+                }
+            }
+            emitStage(decoded, intermediate);
+        }
+    }
+
+    private static int[] encodeStage(List<Rule> rules, boolean intermediate) {
+        int length = 2;
+        for (Rule rule : rules) {
+            length += 2;
+            for (int[] term : rule.rightSideTerms) {
+                length += 1 + term.length;
+            }
+        }
+
+        int[] stage = new int[length];
+        int k = 0;
+        stage[k++] = intermediate ? 1 : 0;
+        stage[k++] = rules.size();
+        for (Rule rule : rules) {
+            stage[k++] = rule.variable;
+            stage[k++] = rule.rightSideTerms.size();
+            for (int[] term : rule.rightSideTerms) {
+                stage[k++] = term.length;
+                System.arraycopy(term, 0, stage, k, term.length);
+                k += term.length;
+            }
+        }
+        return stage;
+    }
+
+    // Every stage has its start rule first, as BinaryGrammar.startRule also assumes, so encodeStage
+    // leaves the flag out.
+    private static List<Rule> decodeStage(int[] stage) {
+        int k = 1;
+        int ruleCount = stage[k++];
+        List<Rule> decoded = new ArrayList<>(ruleCount);
+        for (int r = 0; r < ruleCount; r++) {
+            Rule rule = new Rule();
+            rule.isStarting = r == 0;
+            rule.variable = stage[k++];
+            int termCount = stage[k++];
+            for (int t = 0; t < termCount; t++) {
+                int length = stage[k++];
+                rule.rightSideTerms.add(length == 0 ? EPSILON : Arrays.copyOfRange(stage, k, k + length));
+                k += length;
+            }
+            decoded.add(rule);
+        }
+        return decoded;
+    }
+
+    private void runPhase(String name, Runnable phase, Supplier<GrammarStats> measure) {
+        currentPhase = name;
+        checkInterrupted();
+        if (listener == null) {
+            phase.run();
+            checkSize(name, measure);
+            return;
+        }
+
+        iterations = 0;
+        long allocatedBefore = Instrumentation.allocatedBytes();
+        long start = System.nanoTime();
+        try {
+            phase.run();
+        } catch (RuntimeException | Error e) {
+            listener.phaseFailed(name, e);
+            throw e;
+        }
+        long wallNanos = System.nanoTime() - start;
+        long allocatedBytes = Instrumentation.allocatedBytes() - allocatedBefore;
+        GrammarStats stats = measure.get();
+        listener.phaseCompleted(new PhaseMetrics(name, wallNanos, allocatedBytes, Math.max(iterations, 1), stats));
+        try {
+            checkSize(name, () -> stats);
+        } catch (BudgetExceededException e) {
+            listener.phaseFailed(name, e);
+            throw e;
+        }
+    }
+
+    private void checkSize(String phase, Supplier<GrammarStats> measure) {
+        if (budget == null) return;
+        GrammarStats stats = measure.get();
+        checkSize(phase, stats.termCount, stats.symbolCount, false);
+    }
+
+    private void checkSize(String phase, double productions, double symbols, boolean estimated) {
+        if (productions > budget.maxProductions) {
+            throw new BudgetExceededException(phase, BudgetExceededException.Limit.PRODUCTIONS,
+                    budget.maxProductions, estimated, productions, symbols, -1);
+        }
+        if (symbols > budget.maxSymbols) {
+            throw new BudgetExceededException(phase, BudgetExceededException.Limit.SYMBOLS,
+                    budget.maxSymbols, estimated, productions, symbols, -1);
+        }
+    }
+
+    // Lets a caller stop a conversion by interrupting its thread, and enforces the time budget.
+    // Checked between phases and between the passes and rules of the substitution phases, which
+    // are the ones that can run for long.
+    private void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Conversion interrupted");
+        }
+        if (budget != null && budget.maxMillis != Long.MAX_VALUE) {
+            long elapsedMillis = (System.nanoTime() - budgetStart) / 1_000_000;
+            if (elapsedMillis > budget.maxMillis) {
+                throw new BudgetExceededException(currentPhase, BudgetExceededException.Limit.TIME,
+                        budget.maxMillis, false, -1, -1, elapsedMillis);
+            }
+        }
+    }
+
+    void readData() {
+        if (binaryInput != null) {
+            readBinary();
+            return;
+        }
+        if (grammarInput != null) {
+            readGrammar();
+            return;
+        }
+        if (LOG_ENABLE) prompt("Please Enter Rules Count");
+        int ruleCount = reader.nextInt();
+        for (int i = 0; i < ruleCount; i++) {
+            if (LOG_ENABLE) prompt("Please Enter Rule #" + (i + 1));
+            inputData.add(reader.next());
+        }
+
+        boolean isFirst = true;
+        for (String input : inputData) {
+            StringTokenizer t1 = new StringTokenizer(input, "->");
+            int var = symbols.intern(t1.nextToken());
+            StringTokenizer t2 = new StringTokenizer(t1.nextToken(), "|");
+            TermSet terms = new TermSet();
+            while (t2.hasMoreTokens()) {
+                terms.add(toTerm(t2.nextToken()));
+            }
+
+            Rule foundRule = findRuleWithVar(var);
+            if (foundRule != null) {
+                foundRule.rightSideTerms.addAll(terms);
+            } else {
+                Rule rule = new Rule();
+                rule.isStarting = isFirst;
+                rule.rightSideTerms = terms;
+                rule.variable = var;
+                addRule(rule);
+            }
+            isFirst = false;
+        }
+
+        initVariablesAndTerminals();
+        removeUnnecessaryProductions();
+        cleanRefreshRules();
+    }
+
+    private void readBinary() {
+        int[] symbolOf = new int[binaryInput.ruleCount()];
+        for (int r = 0; r < symbolOf.length; r++) {
+            symbolOf[r] = symbols.intern(binaryInput.variableName(r));
+        }
+        int[] terminalOf = new int[binaryInput.terminalCount()];
+        for (int t = 0; t < terminalOf.length; t++) {
+            terminalOf[t] = symbols.intern(binaryInput.terminalName(t));
+        }
+
+        for (int r = 0; r < symbolOf.length; r++) {
+            Rule rule = new Rule();
+            rule.isStarting = r == binaryInput.startRule();
+            rule.variable = symbolOf[r];
+            for (int t = binaryInput.firstTerm(r); t < binaryInput.firstTerm(r + 1); t++) {
+                int[] term = binaryInput.termLength(t) == 0 ? EPSILON : new int[binaryInput.termLength(t)];
+                for (int i = 0; i < term.length; i++) {
+                    int symbol = binaryInput.symbol(t, i);
+                    term[i] = symbol >= 0 ? symbolOf[symbol] : terminalOf[~symbol];
+                }
+                rule.rightSideTerms.add(term);
+            }
+            addRule(rule);
+        }
+
+        initVariablesAndTerminals();
+        removeUnnecessaryProductions();
+        cleanRefreshRules();
+    }
+
+    private void readGrammar() {
+        boolean isFirst = true;
+        for (Grammar.Rule input : grammarInput.getRules()) {
+            int var = symbols.intern(input.variable);
+            TermSet terms = new TermSet();
+            for (List<String> production : input.productions) {
+                int[] term = production.isEmpty() ? EPSILON : new int[production.size()];
+                for (int i = 0; i < term.length; i++) {
+                    term[i] = symbols.intern(production.get(i));
+                }
+                terms.add(term);
+            }
+
+            Rule foundRule = findRuleWithVar(var);
+            if (foundRule != null) {
+                foundRule.rightSideTerms.addAll(terms);
+            } else {
+                Rule rule = new Rule();
+                rule.isStarting = isFirst;
+                rule.rightSideTerms = terms;
+                rule.variable = var;
+                addRule(rule);
+            }
+            isFirst = false;
+        }
+
+        initVariablesAndTerminals();
+        removeUnnecessaryProductions();
+        cleanRefreshRules();
+    }
+
+    private int[] toTerm(String text) {
+        if (text.equals(EPSILON_CHAR)) {
+            return EPSILON;
+        }
+        int[] term = new int[text.length()];
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int end = findSubscriptEnd(text, i);
+            if (end == -1) {
+                term[length++] = symbols.intern(text.charAt(i));
+            } else {
+                term[length++] = symbols.intern(text.substring(i, end + 1));
+                i = end;
+            }
+        }
+        return length == term.length ? term : Arrays.copyOf(term, length);
+    }
+
+    static int findSubscriptEnd(String text, int from) {
+        if (from + 2 >= text.length() || text.charAt(from + 1) != '[') return -1;
+        int i = from + 2;
+        while (i < text.length() && Character.isDigit(text.charAt(i))) i++;
+        return i > from + 2 && i < text.length() && text.charAt(i) == ']' ? i : -1;
+    }
+
+    void addNewStartRule() {
+        if (rules.isEmpty()) return;
+        int startingRule = rules.get(0).variable;
+        boolean occurredInRightSide = false;
+        for (Rule rule : rules) {
+            for (int[] term : rule.rightSideTerms) {
+                if (indexOf(term, startingRule) != -1) {
+                    occurredInRightSide = true;
+                    break;
+                }
+            }
+        }
+
+        if (!occurredInRightSide) return;
+
+        Rule rule = new Rule();
+        TermSet terms = new TermSet();
+        terms.add(new int[]{rules.get(0).variable});
+        rule.variable = symbols.freshVariable(START_VARIABLE);
+        rule.rightSideTerms = terms;
+        rule.isStarting = true;
+        rules.get(0).isStarting = false;
+        rules.add(0, rule);
+        ruleIndex.put(rule.variable, rule);
+    }
+
+    void removeUnitProductions() {
+        int n = rules.size();
+        int[] ruleNumbers = new int[symbols.size()];
+        Arrays.fill(ruleNumbers, -1);
+        for (int i = 0; i < n; i++) {
+            ruleNumbers[rules.get(i).variable] = i;
+        }
+
+        int[][] unitTargets = new int[n][];
+        for (int i = 0; i < n; i++) {
+            List<int[]> terms = rules.get(i).rightSideTerms;
+            int count = 0;
+            for (int[] term : terms) {
+                if (isUnitTerm(term)) count++;
+            }
+            unitTargets[i] = new int[count];
+            count = 0;
+            for (int[] term : terms) {
+                if (isUnitTerm(term)) unitTargets[i][count++] = ruleNumbers[term[0]];
+            }
+        }
+
+        int[] component = Graphs.stronglyConnectedComponents(unitTargets);
+        int[] byComponent = Graphs.sortByComponent(component);
+        BitSet[] reachable = new BitSet[Graphs.count(component)];
+        for (int i : byComponent) {
+            int c = component[i];
+            if (reachable[c] == null) {
+                reachable[c] = new BitSet(n);
+            }
+            reachable[c].set(i);
+            for (int target : unitTargets[i]) {
+                if (component[target] != c) {
+                    reachable[c].or(reachable[component[target]]);
+                }
+            }
+        }
+
+        List<TermSet> newTerms = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            TermSet terms = new TermSet();
+            addNonUnitTerms(rules.get(i).rightSideTerms, terms);
+            BitSet reach = reachable[component[i]];
+            for (int j = reach.nextSetBit(0); j >= 0; j = reach.nextSetBit(j + 1)) {
+                if (j != i) {
+                    addNonUnitTerms(rules.get(j).rightSideTerms, terms);
+                }
+            }
+            newTerms.add(terms);
+        }
+        for (int i = 0; i < n; i++) {
+            rules.get(i).rightSideTerms = newTerms.get(i);
+        }
+
+        removeUnnecessaryProductions();
+    }
+
+    private void addNonUnitTerms(TermSet from, TermSet to) {
+        for (int[] term : from) {
+            if (!isUnitTerm(term)) {
+                to.add(term);
+            }
+        }
+    }
+
+    void removeNullProductions() {
+        BitSet nullable = findNullableVariables();
+        Snapshot[] steps = memo == null ? null : new Snapshot[symbols.size()];
+        if (nullable.isEmpty()) {
+            if (memo != null) memo.nullSteps = steps;
+            return;
+        }
+        if (budget != null) {
+            double[] estimate = estimateRemoveNullProductions(nullable);
+            checkSize("removeNullProductions", estimate[0], estimate[1], true);
+        }
+
+        for (Rule rule : rules) {
+            if (steps != null) {
+                Snapshot previous = Memo.get(memo.nullSteps, rule.variable);
+                if (previous != null && previous.hasInput(rule, -1) && sameNullable(previous.input, nullable)) {
+                    rule.rightSideTerms = new TermSet(previous.output);
+                    steps[rule.variable] = previous;
+                    memo.reused++;
+                    continue;
+                }
+                steps[rule.variable] = new Snapshot(rule, -1, 0);
+                memo.recomputed++;
+            }
+
+            TermSet newTerms = new TermSet();
+            for (int[] term : rule.rightSideTerms) {
+                int[] indexes = findIndexesOf(term, nullable);
+                if (indexes.length >= Long.SIZE - 1) {
+                    // The subsets no longer fit a long mask, and would not fit any grammar either.
+                    double subsets = Math.scalb(1.0, indexes.length);
+                    throw new BudgetExceededException("removeNullProductions", BudgetExceededException.Limit.PRODUCTIONS,
+                            Long.MAX_VALUE, true, subsets, subsets * (term.length - indexes.length / 2.0), -1);
+                }
+                for (long mask = 0; mask < (1L << indexes.length); mask++) {
+                    int[] newTerm = removeIndexes(term, indexes, mask);
+                    if (newTerm.length == 0 && !rule.isStarting) continue;
+                    newTerms.add(newTerm);
+                }
+            }
+            rule.rightSideTerms = newTerms;
+            if (steps != null) {
+                steps[rule.variable].output = new ArrayList<>(newTerms);
+            }
+        }
+
+        if (memo != null) {
+            memo.nullSteps = steps;
+            memo.nullable = nullable;
+        }
+        removeUnnecessaryProductions();
+    }
+
+    // The productions and symbols removeNullProductions would produce: a term with k nullable
+    // occurrences becomes its 2^k subsets of them, of term.length - k / 2 symbols on average.
+    private double[] estimateRemoveNullProductions(BitSet nullable) {
+        double productions = 0;
+        double symbolCount = 0;
+        for (Rule rule : rules) {
+            for (int[] term : rule.rightSideTerms) {
+                int k = 0;
+                for (int symbol : term) {
+                    if (nullable.get(symbol)) k++;
+                }
+                double subsets = Math.scalb(1.0, k);
+                productions += subsets;
+                symbolCount += subsets * (term.length - k / 2.0);
+            }
+        }
+        return new double[]{Math.min(productions, Double.MAX_VALUE), Math.min(symbolCount, Double.MAX_VALUE)};
+    }
+
+    private boolean sameNullable(List<int[]> terms, BitSet nullable) {
+        for (int[] term : terms) {
+            for (int symbol : term) {
+                if (nullable.get(symbol) != memo.nullable.get(symbol)) return false;
+            }
+        }
+        return true;
+    }
+
+    private BitSet findNullableVariables() {
+        return findDerivingVariables(false);
+    }
+
+    private BitSet findGeneratingVariables() {
+        return findDerivingVariables(true);
+    }
+
+    private BitSet findDerivingVariables(boolean terminalsAllowed) {
+        int productionCount = 0;
+        for (Rule rule : rules) {
+            productionCount += rule.rightSideTerms.size();
+        }
+
+        int[] heads = new int[productionCount];
+        int[] remaining = new int[productionCount];
+        int[] occurrenceStart = new int[symbols.size() + 1];
+        int p = 0;
+        for (Rule rule : rules) {
+            for (int[] term : rule.rightSideTerms) {
+                heads[p] = rule.variable;
+                for (int symbol : term) {
+                    if (variables.get(symbol)) {
+                        remaining[p]++;
+                    } else if (!terminalsAllowed) {
+                        remaining[p] = -1;
+                        break;
+                    }
+                }
+                if (remaining[p] > 0) {
+                    for (int symbol : term) {
+                        if (variables.get(symbol)) occurrenceStart[symbol + 1]++;
+                    }
+                }
+                p++;
+            }
+        }
+
+        for (int i = 0; i < symbols.size(); i++) {
+            occurrenceStart[i + 1] += occurrenceStart[i];
+        }
+        int[] occurrences = new int[occurrenceStart[symbols.size()]];
+        int[] fill = Arrays.copyOf(occurrenceStart, symbols.size());
+        p = 0;
+        for (Rule rule : rules) {
+            for (int[] term : rule.rightSideTerms) {
+                if (remaining[p] > 0) {
+                    for (int symbol : term) {
+                        if (variables.get(symbol)) occurrences[fill[symbol]++] = p;
+                    }
+                }
+                p++;
+            }
+        }
+
+        BitSet deriving = new BitSet();
+        int[] worklist = new int[symbols.size()];
+        int size = 0;
+        for (p = 0; p < productionCount; p++) {
+            if (remaining[p] == 0 && !deriving.get(heads[p])) {
+                deriving.set(heads[p]);
+                worklist[size++] = heads[p];
+            }
+        }
+
+        while (size > 0) {
+            int var = worklist[--size];
+            for (int i = occurrenceStart[var]; i < occurrenceStart[var + 1]; i++) {
+                int production = occurrences[i];
+                if (--remaining[production] == 0 && !deriving.get(heads[production])) {
+                    deriving.set(heads[production]);
+                    worklist[size++] = heads[production];
+                }
+            }
+        }
+
+        return deriving;
+    }
+
+    void handelMoreThanTwoCharacters() {
+        indexJustTerms();
+        boolean shouldRepeat = true;
+        while (shouldRepeat) {
+            shouldRepeat = false;
+            iterations++;
+            List<Rule> addingRules = new ArrayList<>();
+            for (Rule rule : rules) {
+                for (int i = 0; i < rule.rightSideTerms.size(); i++) {
+                    int[] term = rule.rightSideTerms.get(i);
+                    if (term.length > 2) {
+                        int t1 = term[0];
+                        int[] t2 = Arrays.copyOfRange(term, 1, term.length);
+
+                        Rule foundRule = findRuleWithJustTerm(t2);
+                        if (foundRule == null) {
+                            TermSet terms = new TermSet();
+                            terms.add(t2);
+                            Rule newRule = new Rule();
+                            newRule.isStarting = false;
+                            newRule.variable = symbols.freshVariable();
+                            newRule.rightSideTerms = terms;
+                            addingRules.add(newRule);
+                            justTermIndex.putIfAbsent(IntBuffer.wrap(t2), newRule);
+
+                            setTerm(rule, i, new int[]{t1, newRule.variable});
+                        } else {
+                            setTerm(rule, i, new int[]{t1, foundRule.variable});
+                        }
+                        shouldRepeat = true;
+                    }
+                }
+            }
+
+            for (Rule newRule : addingRules) {
+                addRule(newRule);
+            }
+            initVariablesAndTerminals();
+        }
+
+    }
+
+    void handleTwoCharacters() {
+        indexJustTerms();
+
+        boolean shouldRepeat = true;
+        while (shouldRepeat) {
+            shouldRepeat = false;
+            iterations++;
+            List<Rule> addingRules = new ArrayList<>();
+            for (Rule rule : rules) {
+                for (int i = 0; i < rule.rightSideTerms.size(); i++) {
+                    int[] term = rule.rightSideTerms.get(i);
+
+                    if (term.length <= 1) {
+                        continue;
+                    }
+
+                    int t1 = term[0];
+                    int t2 = term[1];
+
+                    boolean isT1Var = variables.get(t1);
+                    boolean isT2Var = variables.get(t2);
+
+                    if (term.length == 2 && (!isT1Var || !isT2Var)) {
+
+                        if (!isT1Var) {
+                            int[] term1 = new int[]{t1};
+                            Rule foundRule = findRuleWithJustTerm(term1);
+                            if (foundRule == null) {
+                                TermSet terms = new TermSet();
+                                terms.add(term1);
+                                Rule newRule = new Rule();
+                                newRule.isStarting = false;
+                                newRule.variable = symbols.freshVariable();
+                                newRule.rightSideTerms = terms;
+
+                                addingRules.add(newRule);
+                                justTermIndex.putIfAbsent(IntBuffer.wrap(term1), newRule);
+
+                                t1 = newRule.variable;
+                            } else {
+                                t1 = foundRule.variable;
+                            }
+                        }
+
+                        if (!isT2Var) {
+                            int[] term2 = new int[]{t2};
+                            Rule foundRule = findRuleWithJustTerm(term2);
+                            if (foundRule == null) {
+                                TermSet terms = new TermSet();
+                                terms.add(term2);
+                                Rule newRule = new Rule();
+                                newRule.isStarting = false;
+                                newRule.variable = symbols.freshVariable();
+                                newRule.rightSideTerms = terms;
+
+                                addingRules.add(newRule);
+                                justTermIndex.putIfAbsent(IntBuffer.wrap(term2), newRule);
+
+                                t2 = newRule.variable;
+                            } else {
+                                t2 = foundRule.variable;
+                            }
+                        }
+
+                        setTerm(rule, i, new int[]{t1, t2});
+                        shouldRepeat = true;
+                    }
+                }
+            }
+
+            for (Rule newRule : addingRules) {
+                addRule(newRule);
+            }
+            initVariablesAndTerminals();
+        }
+
+    }
+
+    void changeVariables() {
+        int[] newVariables = new int[symbols.size()];
+        Arrays.fill(newVariables, -1);
+        int[] order = subscriptOrder == SubscriptOrder.LEFT_CORNER ? leftCornerOrder() : firstAppearanceOrder();
+        for (int count = 0; count < order.length; count++) {
+            newVariables[order[count]] = symbols.intern(SPECIAL_CHAR + "[" + count + "]");
+            setSubscriptOfVar(newVariables[order[count]], count);
+        }
+
+        for (Rule rule : rules) {
+            Rule newRule = new Rule();
+            newRule.isStarting = rule.isStarting;
+            newRule.variable = newVariables[rule.variable];
+            TermSet newTerms = new TermSet();
+            for (int[] term : rule.rightSideTerms) {
+                int[] newTerm = new int[term.length];
+                for (int i = 0; i < term.length; i++) {
+                    newTerm[i] = variables.get(term[i]) ? newVariables[term[i]] : term[i];
+                }
+                newTerms.add(newTerm);
+            }
+            newRule.rightSideTerms = newTerms;
+
+            addNewRule(newRule);
+        }
+    }
+
+    // The variables in the order they first appear, scanning each rule's variable and then its terms.
+    private int[] firstAppearanceOrder() {
+        int[] order = new int[symbols.size()];
+        BitSet seen = new BitSet();
+        int count = 0;
+        for (Rule rule : rules) {
+            if (!seen.get(rule.variable)) {
+                seen.set(rule.variable);
+                order[count++] = rule.variable;
+            }
+            for (int[] term : rule.rightSideTerms) {
+                for (int symbol : term) {
+                    if (variables.get(symbol) && !seen.get(symbol)) {
+                        seen.set(symbol);
+                        order[count++] = symbol;
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(order, count);
+    }
+
+    // alterBadRules substitutes a term whose left corner has a lower subscript than its rule, and
+    // keeps substituting while the result still does, so a left corner below a left-recursive rule
+    // never settles. This order gives every variable a lower subscript than its left corners outside
+    // its strongly connected component of the left-corner graph, which leaves only the cycles to
+    // substitute. Within a component it places variables greedily by the terms alterBadRules would
+    // give them, counted as in estimateAlterBadRules, fewest first, and directly left-recursive
+    // variables after the rest. Ties keep the first-appearance order. An order that would still not
+    // settle, which a cycle can force, is dropped for the first-appearance order, so this never
+    // diverges where the default does not; neither order is guaranteed to settle.
+    private int[] leftCornerOrder() {
+        int[] base = firstAppearanceOrder();
+        int n = base.length;
+        int[] position = new int[symbols.size()];
+        Arrays.fill(position, -1);
+        for (int k = 0; k < n; k++) {
+            position[base[k]] = k;
+        }
+
+        int[][] corners = new int[n][];
+        double[] cost = new double[n];
+        boolean[] leftRecursive = new boolean[n];
+        for (int k = 0; k < n; k++) {
+            Rule rule = findRuleWithVar(base[k]);
+            if (rule == null) {
+                corners[k] = new int[0];
+                cost[k] = 1;
+                continue;
+            }
+            int[] targets = new int[rule.rightSideTerms.size()];
+            int count = 0;
+            for (int[] term : rule.rightSideTerms) {
+                if (term.length > 1 && position[term[0]] != -1) {
+                    targets[count++] = position[term[0]];
+                    leftRecursive[k] |= term[0] == base[k];
+                }
+            }
+            corners[k] = Arrays.copyOf(targets, count);
+            cost[k] = rule.rightSideTerms.size();
+        }
+
+        int[] component = Graphs.stronglyConnectedComponents(corners);
+        int components = Graphs.count(component);
+        int[] byComponent = Graphs.sortByComponent(component);
+        int[] componentStart = new int[components + 1];
+        for (int c : component) {
+            componentStart[c + 1]++;
+        }
+        for (int c = 0; c < components; c++) {
+            componentStart[c + 1] += componentStart[c];
+        }
+        int[] waitingOn = new int[components];
+        for (int k = 0; k < n; k++) {
+            for (int corner : corners[k]) {
+                if (component[corner] != component[k]) waitingOn[component[corner]]++;
+            }
+        }
+        int[][] leadingInto = reverse(corners, component);
+
+        // Components whose every left-corner predecessor is placed, the earliest to appear first.
+        // sortByComponent keeps each component's variables in first-appearance order.
+        PriorityQueue<Integer> ready = new PriorityQueue<>(Comparator.comparingInt(c -> byComponent[componentStart[c]]));
+        for (int c = 0; c < components; c++) {
+            if (waitingOn[c] == 0) ready.add(c);
+        }
+        PriorityQueue<double[]> queue = new PriorityQueue<>((x, y) -> x[0] != y[0] ? Double.compare(x[0], y[0])
+                : x[1] != y[1] ? Double.compare(x[1], y[1]) : Double.compare(x[2], y[2]));
+        boolean[] placed = new boolean[n];
+        int[] order = new int[n];
+        int count = 0;
+        while (!ready.isEmpty()) {
+            int c = ready.poll();
+            for (int i = componentStart[c]; i < componentStart[c + 1]; i++) {
+                int k = byComponent[i];
+                queue.add(new double[]{leftRecursive[k] ? 1 : 0, cost[k], k});
+            }
+            while (!queue.isEmpty()) {
+                double[] next = queue.poll();
+                int k = (int) next[2];
+                if (placed[k] || next[1] != cost[k]) continue;
+                placed[k] = true;
+                order[count++] = base[k];
+                for (int from : leadingInto[k]) {
+                    if (placed[from]) continue;
+                    cost[from] = Math.min(cost[from] + cost[k] - 1, Double.MAX_VALUE);
+                    queue.add(new double[]{leftRecursive[from] ? 1 : 0, cost[from], from});
+                }
+                for (int corner : corners[k]) {
+                    if (component[corner] != c && --waitingOn[component[corner]] == 0) ready.add(component[corner]);
+                }
+            }
+        }
+
+        int[] rank = new int[n];
+        for (int r = 0; r < n; r++) {
+            rank[position[order[r]]] = r;
+        }
+        return settles(corners, component, rank) ? order : base;
+    }
+
+    // Whether alterBadRules settles when vertex k of the left-corner graph gets subscript rank[k].
+    // It substitutes a left corner with a lower subscript than its rule until none is left, each
+    // time appending to the term, so a rule settles unless it reaches a cycle of left corners that
+    // all have lower subscripts than the rule itself, going only through such left corners.
+    // component is the graph's strongly connected components, numbered as Graphs numbers them.
+    private static boolean settles(int[][] corners, int[] component, int[] rank) {
+        int n = corners.length;
+        int components = Graphs.count(component);
+        int[] size = new int[components];
+        boolean[] reachesCycle = new boolean[components];
+        for (int k = 0; k < n; k++) {
+            size[component[k]]++;
+        }
+        for (int k = 0; k < n; k++) {
+            for (int corner : corners[k]) {
+                if (corner == k) reachesCycle[component[k]] = true;
+            }
+        }
+        // Edges only lead to lower component numbers, so those are final when a component is reached.
+        int[] byComponent = Graphs.sortByComponent(component);
+        for (int k : byComponent) {
+            int c = component[k];
+            reachesCycle[c] |= size[c] > 1;
+            for (int corner : corners[k]) {
+                reachesCycle[c] |= reachesCycle[component[corner]];
+            }
+        }
+
+        // state[v] is 2 * rule + 1 while v is on the search stack of rule, 2 * rule + 2 once done.
+        int[] state = new int[n];
+        int[] stack = new int[n];
+        int[] next = new int[n];
+        for (int rule = 0; rule < n; rule++) {
+            if (!reachesCycle[component[rule]]) continue;
+            int onStack = 2 * rule + 1;
+            int done = 2 * rule + 2;
+            for (int lead : corners[rule]) {
+                if (rank[lead] >= rank[rule] || state[lead] == done || !reachesCycle[component[lead]]) continue;
+                int depth = 0;
+                stack[0] = lead;
+                next[0] = 0;
+                state[lead] = onStack;
+                while (depth >= 0) {
+                    int v = stack[depth];
+                    if (next[depth] == corners[v].length) {
+                        state[v] = done;
+                        depth--;
+                        continue;
+                    }
+                    int w = corners[v][next[depth]++];
+                    if (rank[w] >= rank[rule] || state[w] == done) continue;
+                    if (state[w] == onStack) return false;
+                    state[w] = onStack;
+                    stack[++depth] = w;
+                    next[depth] = 0;
+                }
+            }
+        }
+        return true;
+    }
+
+    // For each vertex, the other vertices of its component with an edge to it, once per edge.
+    private static int[][] reverse(int[][] edges, int[] component) {
+        int[] count = new int[edges.length];
+        for (int from = 0; from < edges.length; from++) {
+            for (int to : edges[from]) {
+                if (to != from && component[to] == component[from]) count[to]++;
+            }
+        }
+        int[][] reversed = new int[edges.length][];
+        for (int to = 0; to < edges.length; to++) {
+            reversed[to] = new int[count[to]];
+            count[to] = 0;
+        }
+        for (int from = 0; from < edges.length; from++) {
+            for (int to : edges[from]) {
+                if (to != from && component[to] == component[from]) reversed[to][count[to]++] = from;
+            }
+        }
+        return reversed;
+    }
+
+    void alterBadRules() {
+        currentPhase = "alterBadRules";
+        if (budget != null) {
+            double[] estimate = estimateAlterBadRules();
+            checkSize("alterBadRules", estimate[0], estimate[1], true);
+        }
+        Snapshot[] steps = null;
+        List<Rule> pending = newRules;
+        if (memo != null) {
+            steps = new Snapshot[symbols.size()];
+            pending = reuseBadRules(steps);
+        }
+
+        boolean shouldContinue = true;
+        while (shouldContinue) {
+            checkInterrupted();
+            // A left corner below a left-recursive rule makes the passes grow without settling,
+            // which the estimate above does not foresee; alterBadRule counts the growth from here.
+            if (budget != null) {
+                GrammarStats stats = measureNewRules();
+                checkSize("alterBadRules", stats.termCount, stats.symbolCount, false);
+                grownProductions.set(stats.termCount);
+                grownSymbols.set(stats.symbolCount);
+            }
+            shouldContinue = false;
+            iterations++;
+            if (pool != null) {
+                shouldContinue = alterBadRulesInParallel(pending);
+                continue;
+            }
+            for (Rule rule : pending) {
+                if (alterBadRule(rule, rule.rightSideTerms, r -> r.rightSideTerms)) {
+                    shouldContinue = true;
+                }
+            }
+        }
+
+        if (steps != null) {
+            for (Rule rule : pending) {
+                steps[rule.variable].output = new ArrayList<>(rule.rightSideTerms);
+            }
+            memo.badRuleSteps = steps;
+        }
+    }
+
+    // The productions and symbols alterBadRules would produce, from per-rule counts taken in subscript
+    // order: a term of rule i led by the rule with subscript j < i becomes the estimated terms of j,
+    // each followed by the rest of the term. Substituting again into those terms and dropping
+    // duplicates are left out, so this is cheap, linear in the grammar, and exact for grammars that
+    // only substitute one level.
+    private double[] estimateAlterBadRules() {
+        int count = 0;
+        for (Rule rule : newRules) {
+            if (findSubscriptOfVar(rule.variable) != -1) count++;
+        }
+        double[] terms = new double[count];
+        double[] symbolCounts = new double[count];
+        for (int i = 0; i < count; i++) {
+            Rule rule = findNewRuleWithNum(i);
+            if (rule == null) continue;
+            for (int[] term : rule.rightSideTerms) {
+                int j = findLeadingSubscript(term);
+                if (j != -1 && j < i) {
+                    terms[i] += terms[j];
+                    symbolCounts[i] += symbolCounts[j] + terms[j] * (term.length - 1);
+                } else {
+                    terms[i]++;
+                    symbolCounts[i] += term.length;
+                }
+            }
+        }
+        return total(terms, symbolCounts);
+    }
+
+    // The productions and symbols lastStep would produce, up to duplicates: it replaces each term led
+    // by a subscripted variable by that variable's final terms, or its current ones if it comes later
+    // in orderedRules, each followed by the rest of the term.
+    private double[] estimateLastStep(List<Rule> orderedRules) {
+        double[] terms = new double[symbols.size()];
+        double[] symbolCounts = new double[symbols.size()];
+        BitSet done = new BitSet();
+        for (Rule rule : orderedRules) {
+            double ruleTerms = 0;
+            double ruleSymbols = 0;
+            for (int[] term : rule.rightSideTerms) {
+                if (findLeadingSubscript(term) == -1) {
+                    ruleTerms++;
+                    ruleSymbols += term.length;
+                    continue;
+                }
+                double leadTerms = 0;
+                double leadSymbols = 0;
+                if (done.get(term[0])) {
+                    leadTerms = terms[term[0]];
+                    leadSymbols = symbolCounts[term[0]];
+                } else {
+                    for (int[] leadTerm : findNewRuleWithVar(term[0]).rightSideTerms) {
+                        leadTerms++;
+                        leadSymbols += leadTerm.length;
+                    }
+                }
+                ruleTerms += leadTerms;
+                ruleSymbols += leadSymbols + leadTerms * (term.length - 1);
+            }
+            terms[rule.variable] = ruleTerms;
+            symbolCounts[rule.variable] = ruleSymbols;
+            done.set(rule.variable);
+        }
+        return total(terms, symbolCounts);
+    }
+
+    // The sums of per-rule estimates, kept finite so that they can be reported.
+    private static double[] total(double[] terms, double[] symbolCounts) {
+        double productions = 0;
+        double symbolCount = 0;
+        for (int i = 0; i < terms.length; i++) {
+            productions += terms[i];
+            symbolCount += symbolCounts[i];
+        }
+        return new double[]{Math.min(productions, Double.MAX_VALUE), Math.min(symbolCount, Double.MAX_VALUE)};
+    }
+
+    // Checks the size of the grammar alterBadRules is building before each term is added, as the
+    // terms of a pass that does not settle can outgrow memory before the pass ends. Removed terms
+    // are counted off as they are found, so duplicates make this an overcount.
+    private void grow(long productions, long symbolCount) {
+        checkSize("alterBadRules", grownProductions.addAndGet(productions), grownSymbols.addAndGet(symbolCount), false);
+    }
+
+    // Substitutes the terms of rule that lead with a lower subscript, reading the rules substituted
+    // through termsOf, and updates terms in place. Returns whether anything was substituted.
+    private boolean alterBadRule(Rule rule, TermSet terms, Function<Rule, TermSet> termsOf) {
+        int i = findSubscriptOfVar(rule.variable);
+        boolean altered = false;
+
+        List<int[]> addingTerms = new ArrayList<>();
+        List<int[]> removingTerms = new ArrayList<>();
+
+        for (int[] term : terms) {
+
+            int j = findLeadingSubscript(term);
+            if (j != -1 && i > j) {
+                checkInterrupted();
+
+                removingTerms.add(term);
+                Rule ruleJ = findNewRuleWithNum(j);
+                if (budget != null) {
+                    grow(-1, -term.length);
+                }
+                for (int[] termInJ : termsOf.apply(ruleJ)) {
+                    if (budget != null) {
+                        grow(1, termInJ.length + term.length - 1);
+                    }
+                    addingTerms.add(concat(termInJ, term, 1));
+                }
+
+                altered = true;
+
+            }
+        }
+
+        terms.removeAll(removingTerms);
+        terms.addAll(addingTerms);
+        return altered;
+    }
+
+    // One sequential pass reads the already altered terms of the rules before it in pending and the
+    // old terms of the rest. Each rule's result is computed into a copy, reading the copies of earlier
+    // rules, so a rule only waits for the earlier rules it substitutes and the pass can run by level.
+    private boolean alterBadRulesInParallel(List<Rule> pending) {
+        int n = pending.size();
+        int[] position = new int[symbols.size()];
+        Arrays.fill(position, -1);
+        for (int r = 0; r < n; r++) {
+            position[pending.get(r).variable] = r;
+        }
+
+        int[] levels = new int[n];
+        boolean altering = false;
+        for (int r = 0; r < n; r++) {
+            Rule rule = pending.get(r);
+            int i = findSubscriptOfVar(rule.variable);
+            for (int[] term : rule.rightSideTerms) {
+                int j = findLeadingSubscript(term);
+                if (j != -1 && i > j) {
+                    altering = true;
+                    int q = position[findNewRuleWithNum(j).variable];
+                    if (q != -1 && q < r) levels[r] = Math.max(levels[r], levels[q] + 1);
+                }
+            }
+        }
+
+        List<TermSet> results = new ArrayList<>(Collections.nCopies(n, null));
+        runByLevel(levels, r -> {
+            Rule rule = pending.get(r);
+            TermSet terms = new TermSet(rule.rightSideTerms);
+            alterBadRule(rule, terms, ruleJ -> {
+                int q = position[ruleJ.variable];
+                return q != -1 && q < r ? results.get(q) : ruleJ.rightSideTerms;
+            });
+            results.set(r, terms);
+        });
+        for (int r = 0; r < n; r++) {
+            pending.get(r).rightSideTerms = results.get(r);
+        }
+        return altering;
+    }
+
+    // Runs task for every index, level by level; the indexes of one level run concurrently on the pool.
+    private void runByLevel(int[] levels, IntConsumer task) {
+        int maxLevel = 0;
+        for (int level : levels) {
+            maxLevel = Math.max(maxLevel, level);
+        }
+        int[] start = new int[maxLevel + 2];
+        for (int level : levels) {
+            start[level + 1]++;
+        }
+        for (int level = 0; level <= maxLevel; level++) {
+            start[level + 1] += start[level];
+        }
+        int[] order = new int[levels.length];
+        int[] fill = Arrays.copyOf(start, maxLevel + 1);
+        for (int k = 0; k < levels.length; k++) {
+            order[fill[levels[k]]++] = k;
+        }
+
+        for (int level = 0; level <= maxLevel; level++) {
+            if (start[level + 1] - start[level] == 1 || pool.getParallelism() == 1) {
+                for (int k = start[level]; k < start[level + 1]; k++) {
+                    task.accept(order[k]);
+                }
+            } else if (start[level + 1] > start[level]) {
+                pool.invoke(new LevelTask(order, start[level], start[level + 1], task));
+            }
+        }
+    }
+
+    // A rule's passes only read the rules its leading variables lead to, transitively, and depend on
+    // their order in newRules. A rule is reused when nothing in that closure changed; the changed
+    // rules, everything leading to them and everything they lead to are returned for recomputation.
+    private List<Rule> reuseBadRules(Snapshot[] steps) {
+        int n = newRules.size();
+        int[] ruleNumbers = new int[symbols.size()];
+        Arrays.fill(ruleNumbers, -1);
+        for (int r = 0; r < n; r++) {
+            ruleNumbers[newRules.get(r).variable] = r;
+        }
+
+        Snapshot[] previous = new Snapshot[n];
+        int common = 0;
+        for (int r = 0; r < n; r++) {
+            previous[r] = Memo.get(memo.badRuleSteps, newRules.get(r).variable);
+            if (previous[r] != null) common++;
+        }
+        int[] previousOrder = new int[common];
+        common = 0;
+        for (int r = 0; r < n; r++) {
+            if (previous[r] != null) previousOrder[common++] = previous[r].order;
+        }
+        Arrays.sort(previousOrder);
+
+        int[][] leads = new int[n][];
+        int[] leadCount = new int[n];
+        int[] reverseCount = new int[n + 1];
+        BitSet changed = new BitSet(n);
+        common = 0;
+        for (int r = 0; r < n; r++) {
+            Rule rule = newRules.get(r);
+            Snapshot snapshot = previous[r];
+            if (snapshot == null) {
+                changed.set(r);
+            } else if (previousOrder[common++] != snapshot.order
+                    || !snapshot.hasInput(rule, findSubscriptOfVar(rule.variable))) {
+                changed.set(r);
+            }
+            leads[r] = new int[rule.rightSideTerms.size()];
+            for (int[] term : rule.rightSideTerms) {
+                int lead = term.length == 0 ? -1 : ruleNumbers[term[0]];
+                if (lead != -1) {
+                    leads[r][leadCount[r]++] = lead;
+                    reverseCount[lead + 1]++;
+                }
+            }
+        }
+
+        for (int r = 0; r < n; r++) {
+            reverseCount[r + 1] += reverseCount[r];
+        }
+        int[] reverse = new int[reverseCount[n]];
+        int[] fill = Arrays.copyOf(reverseCount, n);
+        for (int r = 0; r < n; r++) {
+            for (int k = 0; k < leadCount[r]; k++) {
+                reverse[fill[leads[r][k]]++] = r;
+            }
+        }
+
+        BitSet affected = (BitSet) changed.clone();
+        int[] queue = new int[n];
+        int tail = 0;
+        for (int r = changed.nextSetBit(0); r >= 0; r = changed.nextSetBit(r + 1)) {
+            queue[tail++] = r;
+        }
+        for (int head = 0; head < tail; head++) {
+            int r = queue[head];
+            for (int i = reverseCount[r]; i < reverseCount[r + 1]; i++) {
+                if (!affected.get(reverse[i])) {
+                    affected.set(reverse[i]);
+                    queue[tail++] = reverse[i];
+                }
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int r = queue[head];
+            for (int k = 0; k < leadCount[r]; k++) {
+                if (!affected.get(leads[r][k])) {
+                    affected.set(leads[r][k]);
+                    queue[tail++] = leads[r][k];
+                }
+            }
+        }
+
+        List<Rule> pending = new ArrayList<>(affected.cardinality());
+        for (int r = 0; r < n; r++) {
+            Rule rule = newRules.get(r);
+            if (affected.get(r)) {
+                steps[rule.variable] = new Snapshot(rule, findSubscriptOfVar(rule.variable), r);
+                pending.add(rule);
+                memo.recomputed++;
+            } else {
+                steps[rule.variable] = new Snapshot(rule, previous[r].subscript, r);
+                steps[rule.variable].output = previous[r].output;
+                rule.rightSideTerms = new TermSet(previous[r].output);
+                memo.reused++;
+            }
+        }
+        return pending;
+    }
+
+    // Left-corner construction over the CNF. R(B,A) derives the w with A =>* Bw along left spines
+    // (A ->+ B in the left-corner graph). Replacing the leftmost variable of every production by a
+    // terminal production of one of its left corners gives only A -> a, A -> a R(B,A) and
+    // R(B,A) -> a [R(E,C)] [R(D,A)] for D -> BC and E -> a, so the output has O(|N|^2) variables and
+    // polynomial size instead of the substitution pipeline's exponential worst case.
+    void leftCornerGNF() {
+        if (rules.isEmpty()) return;
+        int n = symbols.size();
+        List<List<int[]>> leftParents = new ArrayList<>(Collections.nCopies(n, null));
+        List<List<int[]>> terminalsOf = new ArrayList<>(Collections.nCopies(n, null));
+        for (Rule rule : rules) {
+            for (int[] term : rule.rightSideTerms) {
+                if (term.length == 2) {
+                    if (leftParents.get(term[0]) == null) leftParents.set(term[0], new ArrayList<>());
+                    leftParents.get(term[0]).add(new int[]{rule.variable, term[1]});
+                } else if (term.length == 1) {
+                    if (terminalsOf.get(rule.variable) == null) terminalsOf.set(rule.variable, new ArrayList<>());
+                    terminalsOf.get(rule.variable).add(term);
+                }
+            }
+        }
+
+        BitSet[] leftCorners = new BitSet[n];
+        int[] stack = new int[rules.size()];
+        for (Rule rule : rules) {
+            BitSet corners = new BitSet();
+            int size = 0;
+            stack[size++] = rule.variable;
+            while (size > 0) {
+                for (int[] term : findRuleWithVar(stack[--size]).rightSideTerms) {
+                    if (term.length == 2 && !corners.get(term[0])) {
+                        corners.set(term[0]);
+                        stack[size++] = term[0];
+                    }
+                }
+            }
+            leftCorners[rule.variable] = corners;
+        }
+
+        Map<Long, Integer> remainders = new HashMap<>();
+        List<int[]> pending = new ArrayList<>();
+
+        Rule start = rules.get(0);
+        Rule startRule = new Rule();
+        startRule.variable = start.variable;
+        startRule.isStarting = true;
+        for (int[] term : start.rightSideTerms) {
+            if (term.length < 2) startRule.rightSideTerms.add(term);
+        }
+        BitSet startCorners = leftCorners[start.variable];
+        for (int b = startCorners.nextSetBit(0); b >= 0; b = startCorners.nextSetBit(b + 1)) {
+            addLeftCornerTerms(startRule.rightSideTerms, terminalsOf.get(b),
+                    true, -1, false, remainder(remainders, pending, b, start.variable));
+        }
+        addNewRule(startRule);
+
+        for (int next = 0; next < pending.size(); next++) {
+            int b = pending.get(next)[0];
+            int a = pending.get(next)[1];
+            Rule rule = new Rule();
+            rule.variable = pending.get(next)[2];
+            for (int[] parent : listOrEmpty(leftParents.get(b))) {
+                int d = parent[0];
+                int c = parent[1];
+                boolean continues = leftCorners[a].get(d);
+                if (!continues && d != a) continue;
+                int y = continues ? remainder(remainders, pending, d, a) : -1;
+
+                int x = leftCorners[c].get(c) ? remainder(remainders, pending, c, c) : -1;
+                addLeftCornerTerms(rule.rightSideTerms, terminalsOf.get(c), true, x, d == a, y);
+                for (int e = leftCorners[c].nextSetBit(0); e >= 0; e = leftCorners[c].nextSetBit(e + 1)) {
+                    if (e == c) continue;
+                    x = remainder(remainders, pending, e, c);
+                    addLeftCornerTerms(rule.rightSideTerms, terminalsOf.get(e), false, x, d == a, y);
+                }
+            }
+            addNewRule(rule);
+        }
+    }
+
+    // Adds t X Y for every terminal t, where X and Y are left out when optional or absent (-1).
+    private static void addLeftCornerTerms(List<int[]> terms, List<int[]> terminals,
+                                           boolean xOptional, int x, boolean yOptional, int y) {
+        for (int[] terminal : listOrEmpty(terminals)) {
+            int t = terminal[0];
+            if (xOptional && yOptional) terms.add(new int[]{t});
+            if (xOptional && y != -1) terms.add(new int[]{t, y});
+            if (x != -1 && yOptional) terms.add(new int[]{t, x});
+            if (x != -1 && y != -1) terms.add(new int[]{t, x, y});
+        }
+    }
+
+    private int remainder(Map<Long, Integer> remainders, List<int[]> pending, int corner, int variable) {
+        long key = (long) corner << 32 | variable;
+        Integer symbol = remainders.get(key);
+        if (symbol == null) {
+            symbol = symbols.freshVariable();
+            remainders.put(key, symbol);
+            pending.add(new int[]{corner, variable, symbol});
+        }
+        return symbol;
+    }
+
+    private static List<int[]> listOrEmpty(List<int[]> list) {
+        return list == null ? Collections.emptyList() : list;
+    }
+
+    GrammarStats measureRules() {
+        return measure(rules);
+    }
+
+    GrammarStats measureNewRules() {
+        return measure(newRules);
+    }
+
+    private static GrammarStats measure(List<Rule> rules) {
+        int termCount = 0;
+        long symbolCount = 0;
+        int maxTermLength = 0;
+        for (Rule rule : rules) {
+            termCount += rule.rightSideTerms.size();
+            for (int[] term : rule.rightSideTerms) {
+                symbolCount += term.length;
+                maxTermLength = Math.max(maxTermLength, term.length);
+            }
+        }
+        return new GrammarStats(rules.size(), termCount, symbolCount, maxTermLength);
+    }
+
+    private int findSubscriptOfVar(int symbol) {
+        return symbol < subscripts.length ? subscripts[symbol] : -1;
+    }
+
+    private int findLeadingSubscript(int[] term) {
+        return term.length == 0 ? -1 : findSubscriptOfVar(term[0]);
+    }
+
+    private void setSubscriptOfVar(int symbol, int subscript) {
+        if (symbol >= subscripts.length) {
+            int oldLength = subscripts.length;
+            subscripts = Arrays.copyOf(subscripts, Math.max(symbol + 1, oldLength * 2));
+            Arrays.fill(subscripts, oldLength, subscripts.length, -1);
+        }
+        subscripts[symbol] = subscript;
+    }
+
+    void removeLeftRecursion() {
+        List<Rule> addingRules = new ArrayList<>();
+
+        for (Rule rule : newRules) {
+            int i = findSubscriptOfVar(rule.variable);
+
+            List<int[]> removingTerms = new ArrayList<>();
+            List<int[]> addingTerms = new ArrayList<>();
+
+            for (int[] term : rule.rightSideTerms) {
+
+                int j = findLeadingSubscript(term);
+                if (j != -1 && i == j) {
+                    int[] continuee = Arrays.copyOfRange(term, 1, term.length);
+                    int varName = symbols.freshVariable();
+                    TermSet rightSideTerms = new TermSet();
+                    rightSideTerms.add(concat(continuee, new int[]{varName}, 0));
+                    rightSideTerms.add(continuee);
+
+                    Rule newRule = new Rule();
+                    newRule.variable = varName;
+                    newRule.isStarting = false;
+                    newRule.rightSideTerms = rightSideTerms;
+                    addingRules.add(newRule);
+
+                    for (int[] termInRule : rule.rightSideTerms) {
+                        if (Arrays.equals(termInRule, term)) continue;
+
+                        addingTerms.add(concat(termInRule, new int[]{varName}, 0));
+                    }
+
+                    removingTerms.add(term);
+                }
+            }
+
+            rule.rightSideTerms.removeAll(removingTerms);
+            rule.rightSideTerms.addAll(addingTerms);
+        }
+
+        for (Rule newRule : addingRules) {
+            addNewRule(newRule);
+        }
+    }
+
+    void lastStep() {
+        currentPhase = "lastStep";
+        List<Rule> orderedRules = orderLastStepRules();
+        if (budget != null) {
+            double[] estimate = estimateLastStep(orderedRules);
+            checkSize("lastStep", estimate[0], estimate[1], true);
+        }
+
+        Snapshot[] steps = null;
+        BitSet sameInput = null;
+        BitSet reused = null;
+        if (memo != null) {
+            steps = new Snapshot[symbols.size()];
+            sameInput = new BitSet();
+            reused = new BitSet();
+            for (Rule rule : orderedRules) {
+                Snapshot previous = Memo.get(memo.lastSteps, rule.variable);
+                if (previous != null && previous.hasInput(rule, findSubscriptOfVar(rule.variable))) {
+                    sameInput.set(rule.variable);
+                }
+            }
+        }
+
+        if (pool != null && memo == null) {
+            lastStepInParallel(orderedRules);
+            return;
+        }
+
+        // TODO : if this solution was not ok i can use while loop with a variable that show if loop should continue
+        for (Rule rule : orderedRules) {
+            checkInterrupted();
+            if (steps != null) {
+                if (canReuseLastStep(rule, sameInput, reused)) {
+                    Snapshot previous = memo.lastSteps[rule.variable];
+                    rule.rightSideTerms = new TermSet((TermTrie) previous.output);
+                    steps[rule.variable] = previous;
+                    reused.set(rule.variable);
+                    memo.reused++;
+                    continue;
+                }
+                steps[rule.variable] = new Snapshot(rule, findSubscriptOfVar(rule.variable), 0);
+                memo.recomputed++;
+            }
+
+            rule.rightSideTerms = expandLeadingTerms(rule.rightSideTerms, r -> r.rightSideTerms);
+            if (steps != null) {
+                steps[rule.variable].output = rule.rightSideTerms.frozen();
+            }
+        }
+
+        if (memo != null) {
+            memo.lastSteps = steps;
+        }
+    }
+
+    // Returns the final terms, frozen: the terms without a leading subscript, then each expansion in
+    // the order removing the others and adding their expansions to terms would give. They are walked
+    // into the trie directly, so no concatenated array is built, and the rule keeps the trie from here
+    // on; the memo shares it.
+    private TermSet expandLeadingTerms(TermSet terms, Function<Rule, TermSet> termsOf) {
+        TermTrie expanded = new TermTrie();
+        for (int[] term : terms) {
+            if (findLeadingSubscript(term) == -1) expanded.add(term);
+        }
+        for (int[] term : terms) {
+            if (findLeadingSubscript(term) == -1) continue;
+            for (int[] termInRule : termsOf.apply(findNewRuleWithVar(term[0]))) {
+                expanded.add(termInRule, term, 1);
+            }
+        }
+        expanded.trimToSize();
+        return new TermSet(expanded);
+    }
+
+    // Same dependency structure as an alterBadRules pass over orderedRules: a rule reads the expanded
+    // terms of the rules ordered before it and the original terms of the rest.
+    private void lastStepInParallel(List<Rule> orderedRules) {
+        int n = orderedRules.size();
+        int[] position = new int[symbols.size()];
+        for (int r = 0; r < n; r++) {
+            position[orderedRules.get(r).variable] = r;
+        }
+
+        int[] levels = new int[n];
+        for (int r = 0; r < n; r++) {
+            for (int[] term : orderedRules.get(r).rightSideTerms) {
+                if (findLeadingSubscript(term) == -1) continue;
+                int q = position[term[0]];
+                if (q < r) levels[r] = Math.max(levels[r], levels[q] + 1);
+            }
+        }
+
+        List<TermSet> results = new ArrayList<>(Collections.nCopies(n, null));
+        runByLevel(levels, r -> {
+            results.set(r, expandLeadingTerms(orderedRules.get(r).rightSideTerms, cRule -> {
+                int q = position[cRule.variable];
+                return q < r ? results.get(q) : cRule.rightSideTerms;
+            }));
+        });
+        for (int r = 0; r < n; r++) {
+            orderedRules.get(r).rightSideTerms = results.get(r);
+        }
+    }
+
+    private List<Rule> orderLastStepRules() {
+        int count = 0;
+        for (Rule rule : newRules) {
+            if (findSubscriptOfVar(rule.variable) != -1) {
+                count++;
+            }
+        }
+
+        List<Rule> orderedRules = new ArrayList<>();
+        for (int i = count - 1; i >= 0; i--) {
+            orderedRules.add(findNewRuleWithNum(i));
+        }
+
+        for (Rule rule : newRules) {
+            if (findSubscriptOfVar(rule.variable) == -1) {
+                orderedRules.add(rule);
+            }
+        }
+        return orderedRules;
+    }
+
+    // Prints what lastStep followed by printGrammar(newRules) would, without materializing the
+    // expansion: a rule's final terms are its terms without a leading subscript, then, for each term
+    // that has one, the leading rule's terms followed by the rest of the term. The leading rule
+    // contributes its final terms if lastStep would have processed it earlier and its current terms
+    // otherwise. Each term is written as soon as it is reached. Different expansion paths can reach the
+    // same term, for example a kept term hT and the expansion of AT with A->h, so the terms printed
+    // for the current rule are kept in a trie to drop repeats like TermSet does; besides the
+    // intermediate grammar, memory holds the path of suffixes and that trie, which grows with the
+    // largest final rule but stores no term array and no output.
+    private GrammarStats printLastStep() {
+        currentPhase = "lastStep";
+        List<Rule> orderedRules = orderLastStepRules();
+        if (budget != null) {
+            double[] estimate = estimateLastStep(orderedRules);
+            checkSize("lastStep", estimate[0], estimate[1], true);
+        }
+        int[] position = new int[symbols.size()];
+        for (int i = 0; i < orderedRules.size(); i++) {
+            position[orderedRules.get(i).variable] = i;
+        }
+
+        Rule[] owners = new Rule[orderedRules.size() + 1];
+        boolean[] expanding = new boolean[owners.length];
+        boolean[] expanded = new boolean[owners.length];
+        int[] next = new int[owners.length];
+        int[][] suffixes = new int[owners.length][];
+        int termCount = 0;
+        long symbolCount = 0;
+        int maxTermLength = 0;
+
+        TermTrie printed = new TermTrie();
+
+        for (Rule rule : newRules) {
+            checkInterrupted();
+            writer.write(symbols.bytesOf(rule.variable));
+            writer.write(ARROW);
+            printed.clear();
+            int depth = 0;
+            owners[0] = rule;
+            expanding[0] = true;
+            expanded[0] = false;
+            next[0] = 0;
+            int suffixLength = 0;
+
+            while (depth >= 0) {
+                List<int[]> terms = owners[depth].rightSideTerms;
+                if (next[depth] == terms.size()) {
+                    if (expanding[depth] && !expanded[depth]) {
+                        expanded[depth] = true;
+                        next[depth] = 0;
+                    } else {
+                        if (depth > 0) suffixLength -= suffixes[depth].length - 1;
+                        depth--;
+                    }
+                    continue;
+                }
+
+                int[] term = terms.get(next[depth]++);
+                boolean leads = expanding[depth] && findLeadingSubscript(term) != -1;
+                if (leads && expanded[depth]) {
+                    Rule cRule = findNewRuleWithVar(term[0]);
+                    depth++;
+                    owners[depth] = cRule;
+                    expanding[depth] = position[cRule.variable] < position[owners[depth - 1].variable];
+                    expanded[depth] = false;
+                    next[depth] = 0;
+                    suffixes[depth] = term;
+                    suffixLength += term.length - 1;
+                } else if (!leads && !expanded[depth]) {
+                    int node = printed.walk(TermTrie.ROOT, term, 0);
+                    for (int d = depth; d > 0; d--) {
+                        node = printed.walk(node, suffixes[d], 1);
+                    }
+                    if (!printed.end(node)) continue;
+
+                    int length = term.length + suffixLength;
+                    if (printed.size() > 1) writer.write((byte) '|');
+                    if (length == 0) writer.write(EPSILON_BYTES);
+                    for (int symbol : term) {
+                        writer.write(symbols.bytesOf(symbol));
+                    }
+                    for (int d = depth; d > 0; d--) {
+                        for (int i = 1; i < suffixes[d].length; i++) {
+                            writer.write(symbols.bytesOf(suffixes[d][i]));
+                        }
+                    }
+                    termCount++;
+                    symbolCount += length;
+                    maxTermLength = Math.max(maxTermLength, length);
+                }
+            }
+            writer.newLine();
+        }
+        writer.newLine();
+        return new GrammarStats(newRules.size(), termCount, symbolCount, maxTermLength);
+    }
+
+    // A rule's expansion reads the final terms of the rules processed before it and the input terms
+    // of the rest, so it is reused when its own input and those are unchanged.
+    private boolean canReuseLastStep(Rule rule, BitSet sameInput, BitSet reused) {
+        if (!sameInput.get(rule.variable)) return false;
+        int i = findSubscriptOfVar(rule.variable);
+        for (int[] term : rule.rightSideTerms) {
+            int j = findLeadingSubscript(term);
+            if (j == -1) continue;
+            boolean processedBefore = i == -1 || j > i;
+            if (!(processedBefore ? reused : sameInput).get(term[0])) return false;
+        }
+        return true;
+    }
+
+    private Rule findNewRuleWithVar(int var) {
+        return newRuleIndex.get(var);
+    }
+
+    private void cleanRefreshRules() {
+        removeRulesIf(rule -> rule.rightSideTerms.size() == 0);
+        initVariablesAndTerminals();
+    }
+
+    private void removeUnnecessaryProductions() {
+        if (rules.isEmpty()) return;
+        initVariablesAndTerminals();
+
+        BitSet generating = findGeneratingVariables();
+        if (!generating.get(rules.get(0).variable)) {
+            removeRulesIf(rule -> true);
+            initVariablesAndTerminals();
+            return;
+        }
+
+        BitSet useless = (BitSet) variables.clone();
+        useless.andNot(generating);
+        if (!useless.isEmpty()) {
+            removeRulesIf(rule -> useless.get(rule.variable));
+            for (Rule rule : rules) {
+                rule.rightSideTerms.removeIf(term -> containsAny(term, useless));
+            }
+        }
+
+        BitSet reachable = findReachableVariables(rules.get(0).variable);
+        removeRulesIf(rule -> !reachable.get(rule.variable));
+        initVariablesAndTerminals();
+    }
+
+    private BitSet findReachableVariables(int startVariable) {
+        BitSet reachable = new BitSet();
+        int[] queue = new int[rules.size()];
+        int head = 0;
+        int tail = 0;
+        reachable.set(startVariable);
+        queue[tail++] = startVariable;
+        while (head < tail) {
+            Rule rule = findRuleWithVar(queue[head++]);
+            for (int[] term : rule.rightSideTerms) {
+                for (int symbol : term) {
+                    if (variables.get(symbol) && !reachable.get(symbol)) {
+                        reachable.set(symbol);
+                        queue[tail++] = symbol;
+                    }
+                }
+            }
+        }
+        return reachable;
+    }
+
+    private void addRule(Rule rule) {
+        rules.add(rule);
+        ruleIndex.put(rule.variable, rule);
+    }
+
+    private void addNewRule(Rule rule) {
+        newRules.add(rule);
+        newRuleIndex.put(rule.variable, rule);
+        int subscript = findSubscriptOfVar(rule.variable);
+        if (subscript != -1) {
+            subscriptIndex.put(subscript, rule);
+        }
+    }
+
+    private void removeRulesIf(Predicate<Rule> filter) {
+        rules.removeIf(rule -> {
+            if (!filter.test(rule)) return false;
+            ruleIndex.remove(rule.variable, rule);
+            return true;
+        });
+    }
+
+    private void printGrammar(List<Rule> rules) {
+        for (Rule rule : rules) {
+            writer.write(symbols.bytesOf(rule.variable));
+            writer.write(ARROW);
+            for (int i = 0; i < rule.rightSideTerms.size(); i++) {
+                if (i != 0) {
+                    writer.write((byte) '|');
+                }
+                printTerm(rule.rightSideTerms.get(i));
+            }
+            writer.newLine();
+        }
+        writer.newLine();
+    }
+
+    private void printTerm(int[] term) {
+        if (term.length == 0) {
+            writer.write(EPSILON_BYTES);
+            return;
+        }
+        for (int symbol : term) {
+            writer.write(symbols.bytesOf(symbol));
+        }
+    }
+
+    private void prompt(String message) {
+        writer.write(message);
+        writer.newLine();
+        writer.flush();
+    }
+
+    private void indexJustTerms() {
+        justTermIndex.clear();
+        for (Rule rule : rules) {
+            if (rule.rightSideTerms.size() == 1) {
+                justTermIndex.putIfAbsent(IntBuffer.wrap(rule.rightSideTerms.get(0)), rule);
+            }
+        }
+    }
+
+    private void setTerm(Rule rule, int index, int[] term) {
+        int[] oldTerm = rule.rightSideTerms.set(index, term);
+        if (rule.rightSideTerms.size() == 1) {
+            justTermIndex.remove(IntBuffer.wrap(oldTerm), rule);
+            justTermIndex.putIfAbsent(IntBuffer.wrap(term), rule);
+        }
+    }
+
+    private Rule findRuleWithJustTerm(int[] term) {
+        return justTermIndex.get(IntBuffer.wrap(term));
+    }
+
+    private Rule findRuleWithVar(int var) {
+        return ruleIndex.get(var);
+    }
+
+    private Rule findNewRuleWithNum(int num) {
+        return subscriptIndex.get(num);
+    }
+
+    private boolean isUnitTerm(int[] term) {
+        return term.length == 1 && variables.get(term[0]);
+    }
+
+    private void initVariablesAndTerminals() {
+        initVariablesAndTerminals(rules);
+    }
+
+    private void initVariablesAndTerminals(List<Rule> rules) {
+        variables.clear();
+        terminals.clear();
+
+        for (Rule rule : rules) {
+            variables.set(rule.variable);
+        }
+
+        for (Rule rule : rules) {
+            for (int[] term : rule.rightSideTerms) {
+                for (int symbol : term) {
+                    if (!variables.get(symbol)) {
+                        terminals.set(symbol);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean containsAny(int[] term, BitSet of) {
+        for (int symbol : term) {
+            if (of.get(symbol)) return true;
+        }
+        return false;
+    }
+
+    private static int indexOf(int[] term, int symbol) {
+        for (int i = 0; i < term.length; i++) {
+            if (term[i] == symbol) return i;
+        }
+        return -1;
+    }
+
+    private static int[] findIndexesOf(int[] term, BitSet of) {
+        int n = 0;
+        for (int symbol : term) {
+            if (of.get(symbol)) n++;
+        }
+        int[] indexes = new int[n];
+        n = 0;
+        for (int i = 0; i < term.length; i++) {
+            if (of.get(term[i])) indexes[n++] = i;
+        }
+        return indexes;
+    }
+
+    private static int[] removeIndexes(int[] term, int[] indexes, long mask) {
+        int[] result = new int[term.length - Long.bitCount(mask)];
+        int k = 0;
+        int next = 0;
+        for (int i = 0; i < term.length; i++) {
+            if (next < indexes.length && indexes[next] == i) {
+                boolean removed = (mask & (1L << next)) != 0;
+                next++;
+                if (removed) continue;
+            }
+            result[k++] = term[i];
+        }
+        return result.length == 0 ? EPSILON : result;
+    }
+
+    private static int[] concat(int[] head, int[] tail, int tailFrom) {
+        int[] result = new int[head.length + tail.length - tailFrom];
+        System.arraycopy(head, 0, result, 0, head.length);
+        System.arraycopy(tail, tailFrom, result, head.length, tail.length - tailFrom);
+        return result;
+    }
+}
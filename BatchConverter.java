@@ -0,0 +1,164 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class BatchConverter {
+
+    public static class Job {
+        public final String name;
+        public final byte[] input;
+
+        public Job(String name, byte[] input) {
+            this.name = name;
+            this.input = input;
+        }
+    }
+
+    public static class Result {
+        public final String name;
+        public final String output;
+        public final Throwable error;
+        public final ConversionReport report;
+
+        private Result(String name, String output, Throwable error, ConversionReport report) {
+            this.name = name;
+            this.output = output;
+            this.error = error;
+            this.report = report;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    private final int parallelism;
+    private final boolean printIntermediate;
+    private boolean collectMetrics;
+    private ConversionCache cache;
+    private ConversionBudget budget;
+    private Algorithm.GnfMode gnfMode = Algorithm.GnfMode.SUBSTITUTION;
+    private Algorithm.SubscriptOrder subscriptOrder = Algorithm.SubscriptOrder.FIRST_APPEARANCE;
+
+    public BatchConverter(boolean printIntermediate) {
+        this(Runtime.getRuntime().availableProcessors(), printIntermediate);
+    }
+
+    public BatchConverter(int parallelism, boolean printIntermediate) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.printIntermediate = printIntermediate;
+    }
+
+    public void setCollectMetrics(boolean collectMetrics) {
+        this.collectMetrics = collectMetrics;
+    }
+
+    public void setCache(ConversionCache cache) {
+        this.cache = cache;
+    }
+
+    // Applies budget to each grammar; one that exceeds it fails with a BudgetExceededException and the
+    // others carry on.
+    public void setBudget(ConversionBudget budget) {
+        this.budget = budget;
+    }
+
+    public void setGnfMode(Algorithm.GnfMode gnfMode) {
+        this.gnfMode = gnfMode;
+    }
+
+    public void setSubscriptOrder(Algorithm.SubscriptOrder subscriptOrder) {
+        this.subscriptOrder = subscriptOrder;
+    }
+
+    public List<Result> convert(List<Job> jobs) {
+        GrammarConverter converter = new GrammarConverter(gnfMode, subscriptOrder, cache, null, budget);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, jobs.size())));
+        try {
+            List<ConversionReport> reports = new ArrayList<>(jobs.size());
+            List<Future<String>> futures = new ArrayList<>(jobs.size());
+            for (Job job : jobs) {
+                ConversionReport report = collectMetrics ? new ConversionReport() : null;
+                reports.add(report);
+                futures.add(executor.submit(() -> convert(converter, job, report)));
+            }
+
+            List<Result> results = new ArrayList<>(jobs.size());
+            for (int i = 0; i < jobs.size(); i++) {
+                String name = jobs.get(i).name;
+                try {
+                    results.add(new Result(name, futures.get(i).get(), null, reports.get(i)));
+                } catch (ExecutionException e) {
+                    results.add(new Result(name, null, e.getCause(), reports.get(i)));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    results.add(new Result(name, null, e, reports.get(i)));
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private String convert(GrammarConverter converter, Job job, ConversionReport report) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Algorithm algorithm = converter.newAlgorithm(new GrammarReader(new ByteArrayInputStream(job.input)),
+                new GrammarWriter(out), printIntermediate);
+        algorithm.setListener(report);
+        algorithm.start();
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    public static List<Job> readJobs(Path path) throws IOException {
+        return Files.isDirectory(path) ? readDirectory(path) : readMultiGrammarFile(path);
+    }
+
+    public static List<Job> readDirectory(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files);
+
+        List<Job> jobs = new ArrayList<>(files.size());
+        for (Path file : files) {
+            jobs.add(new Job(file.getFileName().toString(), Files.readAllBytes(file)));
+        }
+        return jobs;
+    }
+
+    public static List<Job> readMultiGrammarFile(Path file) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        try (GrammarReader reader = GrammarReader.open(file)) {
+            while (reader.hasNext()) {
+                int ruleCount = reader.nextInt();
+                StringBuilder input = new StringBuilder();
+                input.append(ruleCount).append('\n');
+                for (int i = 0; i < ruleCount; i++) {
+                    input.append(reader.next()).append('\n');
+                }
+                jobs.add(new Job("#" + (jobs.size() + 1), input.toString().getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+        return jobs;
+    }
+}
@@ -0,0 +1,522 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// An approximate timer for the conversion phases, the recognizers and binary loading, over the
+// grammars of GrammarGenerator. It is not JMH: everything runs in this one JVM without forks, the
+// warmup is a fixed period of the same loop, and each operation is timed with System.nanoTime
+// around a single call. JIT state, GC and earlier targets therefore all leak into later numbers, so
+// use it to compare builds on the same machine and options, not as absolute figures.
+//
+// There is no build file; from the source directory run
+//   javac -d out *.java && java -cp out Benchmark [options]
+// Options take the form --key=value: --kinds=RANDOM,NULLABLE,... (default all kinds), --sizes=8,16,32,64,
+// --targets=lastStep,toGNF,... or cyk,gnf,... (default all), --warmup=300 and --time=1000 in
+// milliseconds per target, --seed=42, and --length=32 for the words of --recognize. The modes are the
+// phase timings by default, --recognize for the recognizers, --load for binary loading, and --check,
+// which compares every recognizer with CYK and exits with status 1 on a mismatch. To compare two
+// builds, compile each into its own directory and run the same command against both.
+public class Benchmark {
+
+    private static final OutputStream NULL_OUT = OutputStream.nullOutputStream();
+    // Each conversion target is first run once under this budget, and reported as over budget instead
+    // of measured if it exceeds it, since substitution need not finish on TANGLED grammars.
+    private static final ConversionBudget TRIAL_BUDGET = new ConversionBudget(1_000_000, 20_000_000, 10_000);
+
+    private static class Target {
+        final String name;
+        final Consumer<Algorithm> prepare;
+        final Consumer<Algorithm> run;
+        final Function<Algorithm, GrammarStats> output;
+
+        Target(String name, Consumer<Algorithm> prepare, Consumer<Algorithm> run, Function<Algorithm, GrammarStats> output) {
+            this.name = name;
+            this.prepare = prepare;
+            this.run = run;
+            this.output = output;
+        }
+    }
+
+    private static class RecognizerResult {
+        long words;
+        long nanos;
+        long accepted;
+        double p50;
+        double p99;
+    }
+
+    private static class Result {
+        long operations;
+        long nanos;
+        long allocatedBytes;
+        GrammarStats output;
+    }
+
+    private static final String[] PHASES = {
+            "addNewStartRule",
+            "removeNullProductions",
+            "removeUnitProductions",
+            "handelMoreThanTwoCharacters",
+            "handleTwoCharacters",
+            "changeVariables",
+            "alterBadRules",
+            "removeLeftRecursion",
+            "lastStep"
+    };
+
+    private static final List<Consumer<Algorithm>> PHASE_ACTIONS = Arrays.asList(
+            Algorithm::addNewStartRule,
+            Algorithm::removeNullProductions,
+            Algorithm::removeUnitProductions,
+            Algorithm::handelMoreThanTwoCharacters,
+            Algorithm::handleTwoCharacters,
+            Algorithm::changeVariables,
+            Algorithm::alterBadRules,
+            Algorithm::removeLeftRecursion,
+            Algorithm::lastStep
+    );
+
+    private static final int FIRST_GNF_PHASE = 5;
+
+    private static final String[] RECOGNIZERS = {"cyk", "gnf", "gnf[left-corner]", "generated", "generated[left-corner]"};
+
+    // Grammars that once broke a recognizer, checked by --check before the generated ones: only the
+    // empty word, and empty languages, all of which leave no terminals.
+    private static final String[] EDGE_GRAMMARS = {
+            "1\nS->?\n",
+            "2\nS->A\nA->aA\n",
+            "1\nS->S\n"
+    };
+    private static final List<String> EDGE_WORDS = Arrays.asList("", "a", "b", "aa", "a[1]");
+
+    public static void main(String[] args) {
+        List<GrammarGenerator.Kind> kinds = null;
+        int[] sizes = {8, 16, 32, 64};
+        List<String> targetNames = null;
+        long warmupMillis = 300;
+        long measureMillis = 1000;
+        long seed = 42;
+        boolean recognize = false;
+        boolean load = false;
+        boolean check = false;
+        int length = 32;
+
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--kinds=")) {
+                kinds = new ArrayList<>();
+                for (String kind : value.split(",")) {
+                    kinds.add(GrammarGenerator.Kind.valueOf(kind.toUpperCase(Locale.ROOT)));
+                }
+            } else if (arg.startsWith("--sizes=")) {
+                sizes = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+            } else if (arg.startsWith("--targets=")) {
+                targetNames = Arrays.asList(value.split(","));
+            } else if (arg.startsWith("--warmup=")) {
+                warmupMillis = Long.parseLong(value);
+            } else if (arg.startsWith("--time=")) {
+                measureMillis = Long.parseLong(value);
+            } else if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(value);
+            } else if (arg.equals("--recognize")) {
+                recognize = true;
+            } else if (arg.equals("--load")) {
+                load = true;
+            } else if (arg.equals("--check")) {
+                check = true;
+            } else if (arg.startsWith("--length=")) {
+                length = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+
+        if (kinds == null) {
+            kinds = new ArrayList<>(Arrays.asList(GrammarGenerator.Kind.values()));
+            if (recognize || load || check) {
+                // These convert without a budget, in first-appearance order.
+                kinds.remove(GrammarGenerator.Kind.TANGLED);
+            }
+        }
+
+        if (check) {
+            if (!checkRecognizers(kinds, sizes, length, seed)) {
+                System.exit(1);
+            }
+            return;
+        }
+        System.out.println("# Approximate timings: one JVM, no forks, not JMH; compare runs on the same machine");
+        if (recognize) {
+            benchmarkRecognizers(kinds, sizes, targetNames, length, warmupMillis, measureMillis, seed);
+            return;
+        }
+        if (load) {
+            benchmarkLoading(kinds, sizes, warmupMillis, measureMillis, seed);
+            return;
+        }
+
+        List<Target> targets = new ArrayList<>();
+        for (Target target : allTargets()) {
+            if (targetNames == null || targetNames.contains(target.name)) {
+                targets.add(target);
+            }
+        }
+
+        System.out.printf(Locale.ROOT, "%-15s %6s %-28s %12s %12s %12s %12s %8s %9s %11s%n",
+                "grammar", "size", "benchmark", "ops/s", "us/op", "alloc MB/s", "alloc KB/op",
+                "rules", "terms", "symbols");
+        for (GrammarGenerator.Kind kind : kinds) {
+            for (int size : sizes) {
+                byte[] input = GrammarGenerator.toInput(GrammarGenerator.generate(kind, size, seed))
+                        .getBytes(StandardCharsets.UTF_8);
+                for (Target target : targets) {
+                    BudgetExceededException overBudget = trial(input, target);
+                    if (overBudget != null) {
+                        System.out.printf(Locale.ROOT, "%-15s %6d %-28s over budget: %s%n",
+                                kind, size, target.name, overBudget.getMessage());
+                        continue;
+                    }
+                    measure(input, target, warmupMillis);
+                    Result result = measure(input, target, measureMillis);
+                    report(kind, size, target, result);
+                }
+            }
+        }
+    }
+
+    private static List<Target> allTargets() {
+        List<Target> targets = new ArrayList<>();
+        for (int i = 0; i < PHASES.length; i++) {
+            List<Consumer<Algorithm>> before = PHASE_ACTIONS.subList(0, i);
+            Function<Algorithm, GrammarStats> output = i < FIRST_GNF_PHASE
+                    ? Algorithm::measureRules
+                    : Algorithm::measureNewRules;
+            targets.add(new Target(PHASES[i], algorithm -> before.forEach(phase -> phase.accept(algorithm)),
+                    PHASE_ACTIONS.get(i), output));
+        }
+        for (int i : new int[]{PHASES.length - 3, PHASES.length - 1}) {
+            List<Consumer<Algorithm>> before = PHASE_ACTIONS.subList(0, i);
+            targets.add(new Target(PHASES[i] + "[parallel]", algorithm -> {
+                algorithm.setPool(ForkJoinPool.commonPool());
+                before.forEach(phase -> phase.accept(algorithm));
+            }, PHASE_ACTIONS.get(i), Algorithm::measureNewRules));
+        }
+        targets.add(new Target("toCNF", algorithm -> {
+        }, Algorithm::toCNF, Algorithm::measureRules));
+        targets.add(new Target("toGNF", Algorithm::toCNF, Algorithm::toGNF, Algorithm::measureNewRules));
+        targets.add(new Target("toGNF[left-corner-order]", algorithm -> {
+            algorithm.setSubscriptOrder(Algorithm.SubscriptOrder.LEFT_CORNER);
+            algorithm.toCNF();
+        }, Algorithm::toGNF, Algorithm::measureNewRules));
+        targets.add(new Target("toGNF[left-corner]", algorithm -> {
+            algorithm.setGnfMode(Algorithm.GnfMode.LEFT_CORNER);
+            algorithm.toCNF();
+        }, Algorithm::toGNF, Algorithm::measureNewRules));
+        return targets;
+    }
+
+    // Recognizes sentences of each grammar with at least length terminals, half of them with one
+    // symbol replaced so that most are rejected. Latency percentiles are over single words;
+    // the [parallel] rows run the same words through recognizeAll on the common pool.
+    private static void benchmarkRecognizers(List<GrammarGenerator.Kind> kinds, int[] sizes, List<String> targetNames,
+                                             int length, long warmupMillis, long measureMillis, long seed) {
+        System.out.printf(Locale.ROOT, "%-15s %6s %-28s %8s %12s %12s %12s %12s %10s%n",
+                "grammar", "size", "recognizer", "length", "words/s", "us/word", "p50 us", "p99 us", "accepted");
+        for (GrammarGenerator.Kind kind : kinds) {
+            for (int size : sizes) {
+                List<String> rules = GrammarGenerator.generate(kind, size, seed);
+                byte[] input = GrammarGenerator.toInput(rules).getBytes(StandardCharsets.UTF_8);
+                List<String> words = words(rules, length, seed);
+                double averageLength = words.stream().mapToInt(String::length).average().orElse(0);
+                for (String name : RECOGNIZERS) {
+                    if (targetNames != null && !targetNames.contains(name)) continue;
+                    Recognizer recognizer;
+                    try {
+                        recognizer = compile(name, input);
+                    } catch (IllegalArgumentException e) {
+                        System.out.printf(Locale.ROOT, "%-15s %6d %-28s %s%n", kind, size, name, e.getMessage());
+                        continue;
+                    }
+                    measureRecognizer(recognizer, words, warmupMillis, false);
+                    report(kind, size, name, averageLength, measureRecognizer(recognizer, words, measureMillis, false));
+                    measureRecognizer(recognizer, words, warmupMillis, true);
+                    report(kind, size, name + "[parallel]", averageLength,
+                            measureRecognizer(recognizer, words, measureMillis, true));
+                }
+            }
+        }
+    }
+
+    // Checks that every recognizer builds and agrees with CYK, on EDGE_GRAMMARS and on the words
+    // benchmarkRecognizers uses. Substitution output that is not GNF is skipped, as there. Returns
+    // whether all agreed.
+    private static boolean checkRecognizers(List<GrammarGenerator.Kind> kinds, int[] sizes, int length, long seed) {
+        List<String> inputs = new ArrayList<>(Arrays.asList(EDGE_GRAMMARS));
+        List<List<String>> wordLists = new ArrayList<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            wordLists.add(EDGE_WORDS);
+        }
+        for (GrammarGenerator.Kind kind : kinds) {
+            for (int size : sizes) {
+                List<String> rules = GrammarGenerator.generate(kind, size, seed);
+                inputs.add(GrammarGenerator.toInput(rules));
+                wordLists.add(words(rules, length, seed));
+            }
+        }
+
+        int checked = 0;
+        int failures = 0;
+        for (int g = 0; g < inputs.size(); g++) {
+            byte[] input = inputs.get(g).getBytes(StandardCharsets.UTF_8);
+            List<String> words = wordLists.get(g);
+            Recognizer reference = compile("cyk", input);
+            for (String name : RECOGNIZERS) {
+                Recognizer recognizer;
+                try {
+                    recognizer = compile(name, input);
+                } catch (IllegalArgumentException e) {
+                    continue;
+                } catch (RuntimeException e) {
+                    failures++;
+                    System.out.println(name + " does not build for " + inputs.get(g).replace('\n', ' ') + ": " + e);
+                    continue;
+                }
+                for (String word : words) {
+                    checked++;
+                    boolean expected = reference.recognize(word);
+                    if (recognizer.recognize(word) != expected) {
+                        failures++;
+                        System.out.println(name + (expected ? " rejects \"" : " accepts \"") + word + "\" for "
+                                + inputs.get(g).replace('\n', ' '));
+                    }
+                }
+            }
+        }
+        System.out.println(inputs.size() + " grammars, " + checked + " words, " + failures + " failures");
+        return failures == 0;
+    }
+
+    // Compares getting a GNF recognizer by converting the text grammar with opening the saved binary
+    // GNF and compiling it, and the cost of opening the binary alone.
+    private static void benchmarkLoading(List<GrammarGenerator.Kind> kinds, int[] sizes, long warmupMillis,
+                                         long measureMillis, long seed) {
+        System.out.printf(Locale.ROOT, "%-15s %6s %-28s %12s %12s %12s %10s%n",
+                "grammar", "size", "benchmark", "ops/s", "us/op", "alloc KB/op", "file KB");
+        for (GrammarGenerator.Kind kind : kinds) {
+            for (int size : sizes) {
+                byte[] input = GrammarGenerator.toInput(GrammarGenerator.generate(kind, size, seed))
+                        .getBytes(StandardCharsets.UTF_8);
+                Path file;
+                try {
+                    file = Files.createTempFile("benchmark", ".gnfb");
+                    Algorithm algorithm = new Algorithm(new ByteArrayInputStream(input), NULL_OUT);
+                    algorithm.setPrintIntermediate(false);
+                    algorithm.setBinaryOutput(BinaryGrammar.Form.GNF, file);
+                    algorithm.start();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                try {
+                    long fileBytes = file.toFile().length();
+                    List<String> names = Arrays.asList("text+convert", "binary", "binary+gnfRecognizer");
+                    for (String name : names) {
+                        Runnable run = loader(name, input, file);
+                        measureLoad(run, warmupMillis);
+                        reportLoad(kind, size, name, measureLoad(run, measureMillis), fileBytes);
+                    }
+                } finally {
+                    file.toFile().delete();
+                }
+            }
+        }
+    }
+
+    private static Runnable loader(String name, byte[] input, Path file) {
+        switch (name) {
+            case "text+convert":
+                return () -> {
+                    Algorithm algorithm = new Algorithm(new ByteArrayInputStream(input), NULL_OUT);
+                    algorithm.setPrintIntermediate(false);
+                    algorithm.start();
+                };
+            case "binary":
+                return () -> open(file);
+            default:
+                return () -> {
+                    try {
+                        open(file).gnfRecognizer();
+                    } catch (IllegalArgumentException e) {
+                        // Substitution output that is not GNF; the time up to the check is still measured.
+                    }
+                };
+        }
+    }
+
+    private static BinaryGrammar open(Path file) {
+        try {
+            return BinaryGrammar.open(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Result measureLoad(Runnable run, long millis) {
+        Result result = new Result();
+        long deadline = System.nanoTime() + millis * 1_000_000L;
+        do {
+            long allocatedBefore = Instrumentation.allocatedBytes();
+            long start = System.nanoTime();
+            run.run();
+            result.nanos += System.nanoTime() - start;
+            result.allocatedBytes += Instrumentation.allocatedBytes() - allocatedBefore;
+            result.operations++;
+        } while (System.nanoTime() < deadline);
+        return result;
+    }
+
+    private static void reportLoad(GrammarGenerator.Kind kind, int size, String name, Result result, long fileBytes) {
+        double nanosPerOp = (double) result.nanos / result.operations;
+        System.out.printf(Locale.ROOT, "%-15s %6d %-28s %12.1f %12.2f %12.1f %10.1f%n",
+                kind, size, name,
+                1e9 / nanosPerOp,
+                nanosPerOp / 1e3,
+                (double) result.allocatedBytes / result.operations / 1024,
+                fileBytes / 1024.0);
+    }
+
+    private static Recognizer compile(String name, byte[] input) {
+        GrammarReader reader = new GrammarReader(new ByteArrayInputStream(input));
+        switch (name) {
+            case "cyk":
+                return CykRecognizer.compile(reader);
+            case "gnf":
+                return GnfRecognizer.compile(reader, Algorithm.GnfMode.SUBSTITUTION);
+            case "gnf[left-corner]":
+                return GnfRecognizer.compile(reader, Algorithm.GnfMode.LEFT_CORNER);
+            case "generated":
+                return RecognizerGenerator.compile(reader, Algorithm.GnfMode.SUBSTITUTION).load("Substitution");
+            default:
+                return RecognizerGenerator.compile(reader, Algorithm.GnfMode.LEFT_CORNER).load("LeftCorner");
+        }
+    }
+
+    private static List<String> words(List<String> rules, int length, long seed) {
+        List<String> words = new ArrayList<>(GrammarGenerator.sentences(rules, 64, length, seed));
+        Random random = new Random(seed);
+        for (int i = 0, n = words.size(); i < n; i++) {
+            char[] word = words.get(i).toCharArray();
+            if (word.length == 0) continue;
+            word[random.nextInt(word.length)] = "abcdefgh".charAt(random.nextInt(8));
+            words.add(new String(word));
+        }
+        return words;
+    }
+
+    private static RecognizerResult measureRecognizer(Recognizer recognizer, List<String> words, long millis,
+                                                      boolean parallel) {
+        RecognizerResult result = new RecognizerResult();
+        long[] latencies = new long[1024];
+        int count = 0;
+        long deadline = System.nanoTime() + millis * 1_000_000L;
+        do {
+            if (parallel) {
+                long start = System.nanoTime();
+                boolean[] accepted = recognizer.recognizeAll(words, ForkJoinPool.commonPool());
+                result.nanos += System.nanoTime() - start;
+                result.words += words.size();
+                for (boolean a : accepted) {
+                    if (a) result.accepted++;
+                }
+                continue;
+            }
+            for (String word : words) {
+                long start = System.nanoTime();
+                boolean accepted = recognizer.recognize(word);
+                long nanos = System.nanoTime() - start;
+                result.nanos += nanos;
+                result.words++;
+                if (accepted) result.accepted++;
+                if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+                latencies[count++] = nanos;
+            }
+        } while (System.nanoTime() < deadline);
+        Arrays.sort(latencies, 0, count);
+        result.p50 = count == 0 ? Double.NaN : latencies[count / 2] / 1e3;
+        result.p99 = count == 0 ? Double.NaN : latencies[(int) (count * 0.99)] / 1e3;
+        return result;
+    }
+
+    private static void report(GrammarGenerator.Kind kind, int size, String name, double averageLength,
+                               RecognizerResult result) {
+        double nanosPerWord = (double) result.nanos / result.words;
+        System.out.printf(Locale.ROOT, "%-15s %6d %-28s %8.1f %12.1f %12.2f %12s %12s %9.1f%%%n",
+                kind, size, name, averageLength,
+                1e9 / nanosPerWord,
+                nanosPerWord / 1e3,
+                formatMicros(result.p50),
+                formatMicros(result.p99),
+                100.0 * result.accepted / result.words);
+    }
+
+    private static String formatMicros(double micros) {
+        return Double.isNaN(micros) ? "-" : String.format(Locale.ROOT, "%.2f", micros);
+    }
+
+    private static BudgetExceededException trial(byte[] input, Target target) {
+        Algorithm algorithm = new Algorithm(new ByteArrayInputStream(input), NULL_OUT);
+        algorithm.setBudget(TRIAL_BUDGET);
+        try {
+            algorithm.readData();
+            target.prepare.accept(algorithm);
+            target.run.accept(algorithm);
+            return null;
+        } catch (BudgetExceededException e) {
+            return e;
+        }
+    }
+
+    private static Result measure(byte[] input, Target target, long millis) {
+        Result result = new Result();
+        long deadline = System.nanoTime() + millis * 1_000_000L;
+        do {
+            Algorithm algorithm = new Algorithm(new ByteArrayInputStream(input), NULL_OUT);
+            algorithm.readData();
+            target.prepare.accept(algorithm);
+
+            long allocatedBefore = Instrumentation.allocatedBytes();
+            long start = System.nanoTime();
+            target.run.accept(algorithm);
+            result.nanos += System.nanoTime() - start;
+            result.allocatedBytes += Instrumentation.allocatedBytes() - allocatedBefore;
+            result.operations++;
+            result.output = target.output.apply(algorithm);
+        } while (System.nanoTime() < deadline);
+        return result;
+    }
+
+    private static void report(GrammarGenerator.Kind kind, int size, Target target, Result result) {
+        double nanosPerOp = (double) result.nanos / result.operations;
+        double seconds = result.nanos / 1e9;
+        System.out.printf(Locale.ROOT, "%-15s %6d %-28s %12.1f %12.2f %12.1f %12.1f %8d %9d %11d%n",
+                kind, size, target.name,
+                1e9 / nanosPerOp,
+                nanosPerOp / 1e3,
+                result.allocatedBytes / seconds / (1024 * 1024),
+                (double) result.allocatedBytes / result.operations / 1024,
+                result.output.ruleCount,
+                result.output.termCount,
+                result.output.symbolCount);
+    }
+}
@@ -0,0 +1,312 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+// A grammar in a flat binary layout that is read in place, typically from a read-only mapping of the
+// file, so opening it costs a header check however many productions it has, and any number of
+// processes can map one file. The file is a header of HEADER_INTS ints followed by
+//   nameStart[ruleCount + terminalCount + 1]   offsets of the UTF-8 names, variables then terminals
+//   termStart[ruleCount + 1]                   rule r has the terms termStart[r] .. termStart[r + 1]
+//   symbolStart[termCount + 1]                 term t has the symbols symbolStart[t] .. symbolStart[t + 1]
+//   symbols[symbolCount]                       rule indexes for variables and ~terminal for terminals
+//   names[nameBytes]
+// Symbols use the encoding of GrammarCanonicalizer and the recognizers, so a CNF or GNF file compiles
+// to a recognizer without going through a SymbolTable. Rule 0 is the start rule.
+public class BinaryGrammar {
+
+    public enum Form {
+        RAW,
+        CNF,
+        GNF
+    }
+
+    private static final int MAGIC = 0x474E4642;
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 8;
+    private static final int UNSEEN = Integer.MIN_VALUE;
+
+    private final ByteBuffer bytes;
+    private final Form form;
+    private final int ruleCount;
+    private final int terminalCount;
+    private final int termCount;
+    private final IntBuffer nameStart;
+    private final IntBuffer termStart;
+    private final IntBuffer symbolStart;
+    private final IntBuffer symbols;
+    private final int namesAt;
+
+    private BinaryGrammar(ByteBuffer bytes) throws IOException {
+        this.bytes = bytes;
+        if (bytes.remaining() < HEADER_INTS * 4 || bytes.getInt(0) != MAGIC || bytes.getInt(4) != VERSION) {
+            throw new IOException("Not a binary grammar of version " + VERSION);
+        }
+        int formIndex = bytes.getInt(8);
+        ruleCount = bytes.getInt(12);
+        terminalCount = bytes.getInt(16);
+        termCount = bytes.getInt(20);
+        int symbolCount = bytes.getInt(24);
+        int nameBytes = bytes.getInt(28);
+        if (formIndex < 0 || formIndex >= Form.values().length || ruleCount < 0 || terminalCount < 0
+                || termCount < 0 || symbolCount < 0 || nameBytes < 0) {
+            throw new IOException("Corrupt binary grammar header");
+        }
+        form = Form.values()[formIndex];
+
+        long ints = HEADER_INTS + (ruleCount + terminalCount + 1L) + (ruleCount + 1L) + (termCount + 1L) + symbolCount;
+        if (ints * 4 + nameBytes != bytes.remaining()) {
+            throw new IOException("Binary grammar is " + bytes.remaining() + " bytes, expected " + (ints * 4 + nameBytes));
+        }
+        IntBuffer all = bytes.asIntBuffer();
+        int at = HEADER_INTS;
+        nameStart = all.slice(at, ruleCount + terminalCount + 1);
+        at += nameStart.capacity();
+        termStart = all.slice(at, ruleCount + 1);
+        at += termStart.capacity();
+        symbolStart = all.slice(at, termCount + 1);
+        at += symbolStart.capacity();
+        symbols = all.slice(at, symbolCount);
+        at += symbolCount;
+        namesAt = at * 4;
+    }
+
+    // Maps path read-only; the mapping stays valid after the channel is closed.
+    public static BinaryGrammar open(Path path) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new BinaryGrammar(file.map(FileChannel.MapMode.READ_ONLY, 0, file.size()));
+        }
+    }
+
+    public static BinaryGrammar wrap(ByteBuffer bytes) throws IOException {
+        return new BinaryGrammar(bytes.slice());
+    }
+
+    public static boolean isBinary(Path path) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining()) {
+                if (file.read(magic) == -1) return false;
+            }
+            return magic.getInt(0) == MAGIC;
+        }
+    }
+
+    // Packs a stage as encoded by Algorithm, [intermediate, ruleCount, (variable, termCount,
+    // (length, symbols...)...)...], where nameOf gives the UTF-8 name of a symbol id. Terminals are
+    // numbered in order of first occurrence.
+    static ByteBuffer encode(Form form, int[] stage, IntFunction<byte[]> nameOf) {
+        int ruleCount = stage[1];
+        int[] variables = new int[ruleCount];
+        int termCount = 0;
+        int symbolCount = 0;
+        int maxSymbol = 0;
+        int k = 2;
+        for (int r = 0; r < ruleCount; r++) {
+            variables[r] = stage[k++];
+            maxSymbol = Math.max(maxSymbol, variables[r]);
+            int terms = stage[k++];
+            termCount += terms;
+            for (int t = 0; t < terms; t++) {
+                int length = stage[k++];
+                symbolCount += length;
+                for (int i = 0; i < length; i++) {
+                    maxSymbol = Math.max(maxSymbol, stage[k++]);
+                }
+            }
+        }
+
+        int[] local = new int[maxSymbol + 1];
+        Arrays.fill(local, UNSEEN);
+        for (int r = 0; r < ruleCount; r++) {
+            local[variables[r]] = r;
+        }
+        int[] terminals = new int[symbolCount];
+        int terminalCount = 0;
+        int[] packed = new int[symbolCount];
+        int[] termStart = new int[ruleCount + 1];
+        int[] symbolStart = new int[termCount + 1];
+        int term = 0;
+        int position = 0;
+        k = 2;
+        for (int r = 0; r < ruleCount; r++) {
+            k++;
+            int terms = stage[k++];
+            for (int t = 0; t < terms; t++) {
+                int length = stage[k++];
+                for (int i = 0; i < length; i++) {
+                    int symbol = stage[k++];
+                    if (local[symbol] == UNSEEN) {
+                        terminals[terminalCount] = symbol;
+                        local[symbol] = ~terminalCount++;
+                    }
+                    packed[position++] = local[symbol];
+                }
+                symbolStart[++term] = position;
+            }
+            termStart[r + 1] = term;
+        }
+
+        byte[][] names = new byte[ruleCount + terminalCount][];
+        int[] nameStart = new int[names.length + 1];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = nameOf.apply(i < ruleCount ? variables[i] : terminals[i - ruleCount]);
+            nameStart[i + 1] = nameStart[i] + names[i].length;
+        }
+
+        int ints = HEADER_INTS + nameStart.length + termStart.length + symbolStart.length + symbolCount;
+        ByteBuffer bytes = ByteBuffer.allocate(ints * 4 + nameStart[names.length]);
+        bytes.putInt(MAGIC).putInt(VERSION).putInt(form.ordinal()).putInt(ruleCount).putInt(terminalCount)
+                .putInt(termCount).putInt(symbolCount).putInt(nameStart[names.length]);
+        IntBuffer body = bytes.asIntBuffer();
+        body.put(nameStart).put(termStart).put(symbolStart).put(packed);
+        bytes.position(ints * 4);
+        for (byte[] name : names) {
+            bytes.put(name);
+        }
+        return bytes.flip();
+    }
+
+    // Writes through a temporary file and a rename, so a process mapping path never sees it half written.
+    static void write(Path path, ByteBuffer bytes) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try (FileChannel file = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            ByteBuffer source = bytes.duplicate();
+            while (source.hasRemaining()) {
+                file.write(source);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public Form form() {
+        return form;
+    }
+
+    public int ruleCount() {
+        return ruleCount;
+    }
+
+    public int terminalCount() {
+        return terminalCount;
+    }
+
+    public int termCount() {
+        return termCount;
+    }
+
+    public int startRule() {
+        return ruleCount == 0 ? -1 : 0;
+    }
+
+    // The terms of rule are the term numbers firstTerm(rule) .. firstTerm(rule + 1).
+    public int firstTerm(int rule) {
+        return termStart.get(rule);
+    }
+
+    public int termLength(int term) {
+        return symbolStart.get(term + 1) - symbolStart.get(term);
+    }
+
+    // A rule index, or ~terminal.
+    public int symbol(int term, int index) {
+        return symbols.get(symbolStart.get(term) + index);
+    }
+
+    public String variableName(int rule) {
+        return name(rule);
+    }
+
+    public String terminalName(int terminal) {
+        return name(ruleCount + terminal);
+    }
+
+    private String name(int index) {
+        byte[] name = new byte[nameStart.get(index + 1) - nameStart.get(index)];
+        bytes.get(namesAt + nameStart.get(index), name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    // terms[rule][term] in the encoding the recognizer constructors take.
+    int[][][] indexTerms() {
+        int[][][] terms = new int[ruleCount][][];
+        for (int r = 0; r < ruleCount; r++) {
+            int first = firstTerm(r);
+            terms[r] = new int[firstTerm(r + 1) - first][];
+            for (int t = 0; t < terms[r].length; t++) {
+                int from = symbolStart.get(first + t);
+                terms[r][t] = new int[termLength(first + t)];
+                symbols.get(from, terms[r][t]);
+            }
+        }
+        return terms;
+    }
+
+    public CykRecognizer cnfRecognizer() {
+        requireForm(Form.CNF);
+        return new CykRecognizer(startRule(), indexTerms(), this::terminalName);
+    }
+
+    public GnfRecognizer gnfRecognizer() {
+        requireForm(Form.GNF);
+        return new GnfRecognizer(startRule(), indexTerms(), this::terminalName);
+    }
+
+    public RecognizerGenerator recognizerGenerator() {
+        requireForm(Form.GNF);
+        return new RecognizerGenerator(startRule(), indexTerms(), this::terminalName);
+    }
+
+    private void requireForm(Form expected) {
+        if (form != expected) {
+            throw new IllegalStateException("Expected a " + expected + " grammar but found " + form);
+        }
+    }
+
+    // Prints the grammar the way Algorithm prints a stage, copying names straight from the buffer.
+    public void writeText(GrammarWriter writer) {
+        for (int r = 0; r < ruleCount; r++) {
+            writeName(writer, r);
+            writer.write((byte) '-');
+            writer.write((byte) '>');
+            for (int t = firstTerm(r); t < firstTerm(r + 1); t++) {
+                if (t != firstTerm(r)) {
+                    writer.write((byte) '|');
+                }
+                int length = termLength(t);
+                if (length == 0) {
+                    writer.write((byte) '?');
+                }
+                for (int i = 0; i < length; i++) {
+                    int symbol = symbol(t, i);
+                    writeName(writer, symbol >= 0 ? symbol : ruleCount + ~symbol);
+                }
+            }
+            writer.newLine();
+        }
+        writer.newLine();
+    }
+
+    private void writeName(GrammarWriter writer, int index) {
+        for (int i = namesAt + nameStart.get(index), end = namesAt + nameStart.get(index + 1); i < end; i++) {
+            writer.write(bytes.get(i));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return form + " grammar, " + ruleCount + " rules, " + termCount + " terms, " + symbols.capacity()
+                + " symbols, " + terminalCount + " terminals";
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.Locale;
+
+// Thrown when a conversion would exceed its ConversionBudget. For the size limits productions and
+// symbols give the size of the grammar phase would produce, estimated before the phase runs or
+// measured after it; for the time limit they are -1.
+public class BudgetExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Limit {
+        PRODUCTIONS,
+        SYMBOLS,
+        TIME
+    }
+
+    public final String phase;
+    public final Limit limit;
+    public final long allowed;
+    public final boolean estimated;
+    public final double productions;
+    public final double symbols;
+    public final long elapsedMillis;
+
+    BudgetExceededException(String phase, Limit limit, long allowed, boolean estimated, double productions,
+                            double symbols, long elapsedMillis) {
+        super(message(phase, limit, allowed, estimated, productions, symbols, elapsedMillis));
+        this.phase = phase;
+        this.limit = limit;
+        this.allowed = allowed;
+        this.estimated = estimated;
+        this.productions = productions;
+        this.symbols = symbols;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    private static String message(String phase, Limit limit, long allowed, boolean estimated, double productions,
+                                  double symbols, long elapsedMillis) {
+        if (limit == Limit.TIME) {
+            return phase + " was still running after " + elapsedMillis + " ms, over the limit of " + allowed + " ms";
+        }
+        return phase + (estimated ? " would produce about " : " produced ") + format(productions) + " productions and "
+                + format(symbols) + " symbols, over the limit of " + allowed
+                + (limit == Limit.PRODUCTIONS ? " productions" : " symbols");
+    }
+
+    private static String format(double count) {
+        return count < 1e15 ? String.valueOf(Math.round(count)) : String.format(Locale.ROOT, "%.4g", count);
+    }
+
+    public void appendJson(StringBuilder json) {
+        json.append("{\"phase\":");
+        ConversionReport.appendString(json, phase);
+        json.append(",\"limit\":");
+        ConversionReport.appendString(json, limit.name());
+        json.append(",\"allowed\":").append(allowed)
+            .append(",\"estimated\":").append(estimated)
+            .append(",\"productions\":").append(format(productions))
+            .append(",\"symbols\":").append(format(symbols))
+            .append(",\"elapsedMillis\":").append(elapsedMillis)
+            .append('}');
+    }
+}
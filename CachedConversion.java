@@ -0,0 +1,93 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+public class CachedConversion {
+
+    static final int LITERAL = -1;
+    static final int FRESH = -2;
+    static final int FRESH_START = -3;
+
+    private static final int MAGIC = 0x474E4643;
+    private static final int VERSION = 2;
+
+    // kinds[i] is the canonical label of an input variable, or one of LITERAL, FRESH and FRESH_START.
+    // Fresh symbols are listed in the order they were allocated so that replaying them reproduces the names.
+    final int[] kinds;
+    final String[] names;
+    final List<int[]> stages;
+
+    CachedConversion(int[] kinds, String[] names, List<int[]> stages) {
+        this.kinds = kinds;
+        this.names = names;
+        this.stages = stages;
+    }
+
+    // A stage is [intermediate, ruleCount, (variable, termCount, (length, symbols...)...)...].
+    static boolean isIntermediate(int[] stage) {
+        return stage[0] != 0;
+    }
+
+    static void mapSymbols(int[] stage, IntUnaryOperator mapping) {
+        int k = 1;
+        int ruleCount = stage[k++];
+        for (int r = 0; r < ruleCount; r++) {
+            stage[k] = mapping.applyAsInt(stage[k]);
+            k++;
+            int termCount = stage[k++];
+            for (int t = 0; t < termCount; t++) {
+                int length = stage[k++];
+                for (int i = 0; i < length; i++, k++) {
+                    stage[k] = mapping.applyAsInt(stage[k]);
+                }
+            }
+        }
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(kinds.length);
+        for (int i = 0; i < kinds.length; i++) {
+            out.writeInt(kinds[i]);
+            if (kinds[i] == LITERAL) {
+                out.writeUTF(names[i]);
+            }
+        }
+        out.writeInt(stages.size());
+        for (int[] stage : stages) {
+            out.writeInt(stage.length);
+            for (int value : stage) {
+                out.writeInt(value);
+            }
+        }
+    }
+
+    static CachedConversion readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a cached conversion of version " + VERSION);
+        }
+        int symbolCount = in.readInt();
+        int[] kinds = new int[symbolCount];
+        String[] names = new String[symbolCount];
+        for (int i = 0; i < symbolCount; i++) {
+            kinds[i] = in.readInt();
+            if (kinds[i] == LITERAL) {
+                names[i] = in.readUTF();
+            }
+        }
+        int stageCount = in.readInt();
+        List<int[]> stages = new ArrayList<>(stageCount);
+        for (int s = 0; s < stageCount; s++) {
+            int[] stage = new int[in.readInt()];
+            for (int i = 0; i < stage.length; i++) {
+                stage[i] = in.readInt();
+            }
+            stages.add(stage);
+        }
+        return new CachedConversion(kinds, names, stages);
+    }
+}
@@ -0,0 +1,42 @@
+// Limits on one conversion. Long.MAX_VALUE leaves a limit off. Productions and symbols are those of
+// the grammar a phase produces; time counts from Algorithm.setBudget.
+public class ConversionBudget {
+
+    // The symbols per production forProductions allows.
+    public static final long SYMBOLS_PER_PRODUCTION = 64;
+
+    public static final ConversionBudget UNLIMITED =
+            new ConversionBudget(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+    public final long maxProductions;
+    public final long maxSymbols;
+    public final long maxMillis;
+
+    public ConversionBudget(long maxProductions, long maxSymbols, long maxMillis) {
+        if (maxProductions < 1 || maxSymbols < 1 || maxMillis < 1) {
+            throw new IllegalArgumentException("limits must be positive: " + maxProductions + ", " + maxSymbols
+                    + ", " + maxMillis);
+        }
+        this.maxProductions = maxProductions;
+        this.maxSymbols = maxSymbols;
+        this.maxMillis = maxMillis;
+    }
+
+    // At most maxProductions productions and SYMBOLS_PER_PRODUCTION times as many symbols, with no time
+    // limit. A production limit alone does not stop substitution from making a few terms ever longer.
+    public static ConversionBudget forProductions(long maxProductions) {
+        long maxSymbols = maxProductions > Long.MAX_VALUE / SYMBOLS_PER_PRODUCTION ? Long.MAX_VALUE - 1
+                : maxProductions * SYMBOLS_PER_PRODUCTION;
+        return new ConversionBudget(maxProductions, maxSymbols, Long.MAX_VALUE);
+    }
+
+    @Override
+    public String toString() {
+        return "at most " + format(maxProductions) + " productions, " + format(maxSymbols) + " symbols, "
+                + format(maxMillis) + " ms";
+    }
+
+    private static String format(long limit) {
+        return limit == Long.MAX_VALUE ? "any" : String.valueOf(limit);
+    }
+}
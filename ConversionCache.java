@@ -0,0 +1,119 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ConversionCache {
+
+    private static final String SUFFIX = ".gnfc";
+
+    private final Map<String, CachedConversion> entries;
+    private final Path directory;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ConversionCache(int capacity) throws IOException {
+        this(capacity, null);
+    }
+
+    public ConversionCache(int capacity, Path directory) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.entries = new LinkedHashMap<String, CachedConversion>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedConversion> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.directory = directory;
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+    }
+
+    CachedConversion get(String key) {
+        CachedConversion entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null && directory != null) {
+            entry = load(key);
+            if (entry != null) {
+                diskHits.incrementAndGet();
+                synchronized (entries) {
+                    entries.put(key, entry);
+                }
+            }
+        }
+        (entry == null ? misses : hits).incrementAndGet();
+        return entry;
+    }
+
+    void put(String key, CachedConversion entry) {
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+        if (directory != null) {
+            store(key, entry);
+        }
+    }
+
+    private CachedConversion load(String key) {
+        Path file = directory.resolve(key + SUFFIX);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return CachedConversion.readFrom(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            // A truncated or foreign file is treated as a miss and overwritten by the next store.
+            return null;
+        }
+    }
+
+    private void store(String key, CachedConversion entry) {
+        try {
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                entry.writeTo(out);
+            }
+            Files.move(temp, directory.resolve(key + SUFFIX),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getHits() + " hits (" + getDiskHits() + " from disk), " + getMisses() + " misses";
+    }
+}
@@ -0,0 +1,7 @@
+public interface ConversionListener {
+
+    void phaseCompleted(PhaseMetrics metrics);
+
+    default void phaseFailed(String phase, Throwable error) {
+    }
+}
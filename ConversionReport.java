@@ -0,0 +1,101 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class ConversionReport implements ConversionListener {
+
+    private final List<PhaseMetrics> phases = new ArrayList<>();
+    private String failedPhase;
+    private Throwable failure;
+
+    @Override
+    public void phaseCompleted(PhaseMetrics metrics) {
+        phases.add(metrics);
+    }
+
+    @Override
+    public void phaseFailed(String phase, Throwable error) {
+        failedPhase = phase;
+        failure = error;
+    }
+
+    public List<PhaseMetrics> getPhases() {
+        return Collections.unmodifiableList(phases);
+    }
+
+    public String getFailedPhase() {
+        return failedPhase;
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        appendJson(json);
+        return json.toString();
+    }
+
+    public void appendJson(StringBuilder json) {
+        long totalNanos = 0;
+        long totalBytes = 0;
+        json.append("{\"phases\":[");
+        for (int i = 0; i < phases.size(); i++) {
+            PhaseMetrics metrics = phases.get(i);
+            totalNanos += metrics.wallNanos;
+            totalBytes += metrics.allocatedBytes;
+            if (i != 0) json.append(',');
+            json.append("{\"phase\":");
+            appendString(json, metrics.phase);
+            json.append(",\"wallNanos\":").append(metrics.wallNanos)
+                .append(",\"allocatedBytes\":").append(metrics.allocatedBytes)
+                .append(",\"iterations\":").append(metrics.iterations)
+                .append(",\"rules\":").append(metrics.grammar.ruleCount)
+                .append(",\"terms\":").append(metrics.grammar.termCount)
+                .append(",\"symbols\":").append(metrics.grammar.symbolCount)
+                .append(",\"maxTermLength\":").append(metrics.grammar.maxTermLength)
+                .append('}');
+        }
+        json.append("],\"totalWallNanos\":").append(totalNanos)
+            .append(",\"totalAllocatedBytes\":").append(totalBytes);
+        if (failedPhase != null) {
+            json.append(",\"failedPhase\":");
+            appendString(json, failedPhase);
+            json.append(",\"error\":");
+            appendString(json, String.valueOf(failure));
+            if (failure instanceof BudgetExceededException) {
+                json.append(",\"budget\":");
+                ((BudgetExceededException) failure).appendJson(json);
+            }
+        }
+        json.append('}');
+    }
+
+    static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,272 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Converts grammars posted over HTTP on the loopback interface, so other processes can reuse one warm
+// JVM. POST /cnf, /gnf or /convert with a grammar in the input format returns the CNF, the GNF or
+// both, printed as by "Main --no-intermediate"; ?gnf=left-corner selects the GNF construction.
+// GET /stats returns counters and latency percentiles as JSON.
+// At most maxConcurrent conversions run at once. Further requests are refused with 503 at once
+// rather than queued, before their body is read, and a conversion that is still running after the
+// timeout is interrupted and answered with 504. Its permit is only returned once it has stopped. A
+// body over MAX_BODY_BYTES is answered with 413, as is a grammar over the budget, with the
+// BudgetExceededException as JSON.
+public class ConversionServer {
+
+    private static final int LATENCY_SAMPLES = 4096;
+    private static final int MAX_BODY_BYTES = 16 << 20;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final GrammarConverter substitution;
+    private final GrammarConverter leftCorner;
+    private final int maxConcurrent;
+    private final Semaphore permits;
+    private final long timeoutMillis;
+    private final long startNanos = System.nanoTime();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong overBudget = new AtomicLong();
+    // The latencies of the last LATENCY_SAMPLES conversions, in nanoseconds.
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private long latencyCount;
+
+    public ConversionServer(int port, int maxConcurrent, long timeoutMillis, ConversionCache cache,
+                            ConversionBudget budget) throws IOException {
+        this(port, maxConcurrent, timeoutMillis, Algorithm.SubscriptOrder.FIRST_APPEARANCE, cache, budget);
+    }
+
+    // subscriptOrder applies to the substitution GNF; see Algorithm.setSubscriptOrder.
+    public ConversionServer(int port, int maxConcurrent, long timeoutMillis, Algorithm.SubscriptOrder subscriptOrder,
+                            ConversionCache cache, ConversionBudget budget) throws IOException {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be positive: " + maxConcurrent);
+        }
+        this.substitution = new GrammarConverter(Algorithm.GnfMode.SUBSTITUTION, subscriptOrder, cache, null, budget);
+        this.leftCorner = new GrammarConverter(Algorithm.GnfMode.LEFT_CORNER, subscriptOrder, cache, null, budget);
+        this.maxConcurrent = maxConcurrent;
+        this.permits = new Semaphore(maxConcurrent);
+        this.timeoutMillis = timeoutMillis;
+
+        ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "conversion-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(executor);
+        server.createContext("/cnf", exchange -> convert(exchange, true, false));
+        server.createContext("/gnf", exchange -> convert(exchange, false, true));
+        server.createContext("/convert", exchange -> convert(exchange, true, true));
+        server.createContext("/stats", this::stats);
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() where the JDK has it (21 and later), otherwise null.
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    private void convert(HttpExchange exchange, boolean cnf, boolean gnf) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            if (!exchange.getRequestMethod().equals("POST")) {
+                failed.incrementAndGet();
+                respond(exchange, 405, "Use POST with a grammar as the body\n");
+                return;
+            }
+            GrammarConverter converter = substitution;
+            String query = exchange.getRequestURI().getQuery();
+            if (query != null) {
+                if (query.equals("gnf=left-corner")) {
+                    converter = leftCorner;
+                } else if (!query.equals("gnf=substitution")) {
+                    failed.incrementAndGet();
+                    respond(exchange, 400, "Unknown query " + query + "\n");
+                    return;
+                }
+            }
+            if (!permits.tryAcquire()) {
+                rejected.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 503, "Too many conversions in progress\n");
+                return;
+            }
+
+            // The permit passes to the conversion once it is submitted.
+            long start;
+            Future<String> result = null;
+            try {
+                String body = readBody(exchange);
+                if (body == null) {
+                    failed.incrementAndGet();
+                    respond(exchange, 413, "Grammar larger than " + MAX_BODY_BYTES + " bytes\n");
+                    return;
+                }
+                GrammarConverter chosen = converter;
+                start = System.nanoTime();
+                result = executor.submit(() -> {
+                    try {
+                        return convert(chosen, body, cnf, gnf);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } finally {
+                if (result == null) {
+                    permits.release();
+                }
+            }
+
+            try {
+                String output = result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+                record(System.nanoTime() - start);
+                completed.incrementAndGet();
+                respond(exchange, 200, output);
+            } catch (TimeoutException e) {
+                result.cancel(true);
+                timedOut.incrementAndGet();
+                respond(exchange, 504, "Conversion took longer than " + timeoutMillis + " ms\n");
+            } catch (ExecutionException e) {
+                failed.incrementAndGet();
+                Throwable cause = e.getCause();
+                if (cause instanceof BudgetExceededException) {
+                    overBudget.incrementAndGet();
+                    StringBuilder json = new StringBuilder();
+                    ((BudgetExceededException) cause).appendJson(json);
+                    exchange.getResponseHeaders().set("Content-Type", "application/json");
+                    respond(exchange, 413, json.append('\n').toString());
+                    return;
+                }
+                boolean badInput = cause instanceof NoSuchElementException || cause instanceof NumberFormatException;
+                respond(exchange, badInput ? 400 : 500, cause + "\n");
+            } catch (InterruptedException | CancellationException e) {
+                result.cancel(true);
+                failed.incrementAndGet();
+                respond(exchange, 503, "Server is shutting down\n");
+            }
+        }
+    }
+
+    // The body as text, or null when it is longer than MAX_BODY_BYTES.
+    private static String readBody(HttpExchange exchange) throws IOException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null) {
+            try {
+                if (Long.parseLong(length.trim()) > MAX_BODY_BYTES) return null;
+            } catch (NumberFormatException e) {
+                // Read the body to find out.
+            }
+        }
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+            return bytes.length > MAX_BODY_BYTES ? null : new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String convert(GrammarConverter converter, String input, boolean cnf, boolean gnf) {
+        Grammar grammar = Grammar.parse(input);
+        if (cnf && gnf) {
+            GrammarConverter.Conversion conversion = converter.convert(grammar);
+            return conversion.cnf + "\n" + conversion.gnf + "\n";
+        }
+        return (cnf ? converter.toCnf(grammar) : converter.toGnf(grammar)) + "\n";
+    }
+
+    private synchronized void record(long nanos) {
+        latencies[(int) (latencyCount++ % LATENCY_SAMPLES)] = nanos;
+    }
+
+    private void stats(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            long[] samples;
+            synchronized (this) {
+                samples = Arrays.copyOf(latencies, (int) Math.min(latencyCount, LATENCY_SAMPLES));
+            }
+            Arrays.sort(samples);
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+            StringBuilder json = new StringBuilder();
+            json.append("{\"requests\":").append(requests.get())
+                .append(",\"completed\":").append(completed.get())
+                .append(",\"failed\":").append(failed.get())
+                .append(",\"rejected\":").append(rejected.get())
+                .append(",\"timedOut\":").append(timedOut.get())
+                .append(",\"overBudget\":").append(overBudget.get())
+                .append(",\"inFlight\":").append(maxConcurrent - permits.availablePermits())
+                .append(",\"virtualThreads\":").append(virtualThreads)
+                .append(",\"uptimeSeconds\":").append(String.format(Locale.ROOT, "%.3f", seconds))
+                .append(",\"throughputPerSecond\":")
+                .append(String.format(Locale.ROOT, "%.3f", completed.get() / Math.max(seconds, 1e-9)))
+                .append(",\"latencyMicros\":{\"samples\":").append(samples.length)
+                .append(",\"p50\":").append(percentile(samples, 0.5))
+                .append(",\"p90\":").append(percentile(samples, 0.9))
+                .append(",\"p99\":").append(percentile(samples, 0.99))
+                .append(",\"max\":").append(samples.length == 0 ? 0 : samples[samples.length - 1] / 1000)
+                .append("}}\n");
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            respond(exchange, 200, json.toString());
+        }
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, sorted.length * fraction)] / 1000;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (!exchange.getResponseHeaders().containsKey("Content-Type")) {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+// Membership test against a grammar in Chomsky normal form. Nonterminals are numbered densely and a
+// CYK cell is the set of nonterminals deriving a span, packed into words longs. Binary productions
+// are grouped by their left child B: partners[B] is the set of right children C with some A -> BC,
+// so one AND per word tells whether a split can produce anything for B, and the heads of each
+// matching (B, C) pair are ORed into the cell a word at a time.
+public class CykRecognizer implements Recognizer {
+
+    // The longest array most JVMs allocate; larger tables and sets are rejected instead of overflowing
+    // their int sizes.
+    private static final int MAX_LONGS = Integer.MAX_VALUE - 8;
+    // A table may take at most this fraction of the maximum heap, so an input whose table would not
+    // fit is rejected before the allocation rather than running the JVM out of memory.
+    private static final int HEAP_FRACTION = 4;
+
+    private final int words;
+    private final int start;
+    private final boolean acceptsEmpty;
+
+    // Terminal t derives the nonterminals in terminalHeads[t * words ..].
+    private final TerminalAlphabet alphabet = new TerminalAlphabet();
+    private final long[] terminalHeads;
+
+    private final long[] partners;
+    // The pairs of B are pairStart[B] .. pairStart[B + 1]; pair k has right child pairRight[k] and
+    // produces the nonterminals in pairHeads[k * words ..].
+    private final int[] pairStart;
+    private final int[] pairRight;
+    private final long[] pairHeads;
+
+    // terms[rule][term] holds rule indexes for variables and ~symbol for terminals, as for
+    // GrammarCanonicalizer; every term must be empty, a terminal or two variables.
+    CykRecognizer(int startRule, int[][][] terms, IntFunction<String> terminalName) {
+        int n = terms.length;
+        words = Math.max(1, (n + 63) >>> 6);
+        start = startRule;
+
+        boolean empty = false;
+        Map<Long, Integer> pairOf = new HashMap<>();
+        int[] pairCount = new int[n + 1];
+        for (int[][] rule : terms) {
+            for (int[] term : rule) {
+                if (term.length == 1 && term[0] < 0) {
+                    alphabet.add(terminalName.apply(~term[0]));
+                } else if (term.length == 2 && term[0] >= 0 && term[1] >= 0) {
+                    if (pairOf.putIfAbsent(pairKey(term[0], term[1]), -1) == null) pairCount[term[0] + 1]++;
+                } else if (term.length != 0) {
+                    throw new IllegalArgumentException("Not in Chomsky normal form: " + Arrays.toString(term));
+                }
+            }
+        }
+
+        terminalHeads = new long[sets(alphabet.size(), "terminals")];
+
+        pairStart = new int[n + 1];
+        for (int b = 0; b < n; b++) {
+            pairStart[b + 1] = pairStart[b] + pairCount[b + 1];
+        }
+        pairRight = new int[pairOf.size()];
+        pairHeads = new long[sets(pairOf.size(), "binary productions")];
+        partners = new long[sets(n, "nonterminals")];
+        int[] fill = Arrays.copyOf(pairStart, n);
+
+        for (int a = 0; a < n; a++) {
+            for (int[] term : terms[a]) {
+                if (term.length == 0) {
+                    if (a == startRule) empty = true;
+                } else if (term.length == 1) {
+                    set(terminalHeads, alphabet.add(terminalName.apply(~term[0])), a);
+                } else {
+                    int b = term[0];
+                    int c = term[1];
+                    int k = pairOf.get(pairKey(b, c));
+                    if (k == -1) {
+                        k = fill[b]++;
+                        pairOf.put(pairKey(b, c), k);
+                        pairRight[k] = c;
+                        set(partners, b, c);
+                    }
+                    set(pairHeads, k, a);
+                }
+            }
+        }
+        acceptsEmpty = empty;
+    }
+
+    // Converts the grammar read from reader to CNF and compiles it.
+    public static CykRecognizer compile(GrammarReader reader) {
+        Algorithm algorithm = new Algorithm(reader, new GrammarWriter(OutputStream.nullOutputStream()));
+        algorithm.setPrintIntermediate(false);
+        algorithm.readData();
+        algorithm.toCNF();
+        return algorithm.cnfRecognizer();
+    }
+
+    @Override
+    public boolean recognize(CharSequence input) {
+        if (start < 0) return false;
+        int[] tokens = alphabet.tokenize(input.toString());
+        if (tokens == null) return false;
+        int n = tokens.length;
+        if (n == 0) return acceptsEmpty;
+
+        // The n (n + 1) / 2 cells need to fit one array and a quarter of the heap; a 1.5 GiB heap allows
+        // about 10000 / sqrt(words) symbols.
+        long cells = (long) n * (n + 1) / 2;
+        long maxLongs = Math.min(MAX_LONGS, Runtime.getRuntime().maxMemory() / HEAP_FRACTION / Long.BYTES);
+        if (cells > maxLongs / words) {
+            throw new IllegalArgumentException("Input of " + n + " symbols is too long for CYK: its table needs "
+                    + cells * words + " longs, over the limit of " + maxLongs);
+        }
+        // Cells for spans of length len start at row[len] and are ordered by first position.
+        int[] row = new int[n + 1];
+        for (int len = 2; len <= n; len++) {
+            row[len] = row[len - 1] + (n - len + 2) * words;
+        }
+        long[] table = new long[row[n] + words];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(terminalHeads, tokens[i] * words, table, i * words, words);
+        }
+
+        for (int len = 2; len <= n; len++) {
+            for (int i = 0; i + len <= n; i++) {
+                int cell = row[len] + i * words;
+                for (int split = 1; split < len; split++) {
+                    combine(table, row[split] + i * words, row[len - split] + (i + split) * words, cell);
+                }
+            }
+        }
+        return (table[row[n] + (start >>> 6)] & (1L << start)) != 0;
+    }
+
+    private void combine(long[] table, int left, int right, int cell) {
+        for (int w = 0; w < words; w++) {
+            long bits = table[left + w];
+            while (bits != 0) {
+                int b = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (!intersects(table, right, partners, b * words)) continue;
+                for (int k = pairStart[b]; k < pairStart[b + 1]; k++) {
+                    int c = pairRight[k];
+                    if ((table[right + (c >>> 6)] & (1L << c)) == 0) continue;
+                    int heads = k * words;
+                    for (int v = 0; v < words; v++) {
+                        table[cell + v] |= pairHeads[heads + v];
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean intersects(long[] a, int from, long[] b, int bFrom) {
+        for (int w = 0; w < words; w++) {
+            if ((a[from + w] & b[bFrom + w]) != 0) return true;
+        }
+        return false;
+    }
+
+    // The length of count sets of nonterminals, one after the other.
+    private int sets(int count, String what) {
+        if (count > MAX_LONGS / words) {
+            throw new IllegalArgumentException("Too many " + what + " for CYK: " + count + " sets of " + words
+                    + " longs exceed the limit of " + MAX_LONGS);
+        }
+        return count * words;
+    }
+
+    private void set(long[] sets, int set, int member) {
+        sets[set * words + (member >>> 6)] |= 1L << member;
+    }
+
+    private static long pairKey(int b, int c) {
+        return (long) b << 32 | c;
+    }
+}
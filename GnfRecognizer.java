@@ -0,0 +1,253 @@
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+// Membership test against a grammar in Greibach normal form, consuming one input symbol per step.
+// Productions are indexed by (variable, leading terminal), so a step only tries the productions
+// that can match. The search runs all alternatives in lockstep on a graph-structured stack: a frame
+// is a position in the flattened productions, meaning "the symbols from here to the end of the
+// production, then any of the parent frames". Frames created in the same step for the same position
+// are merged, which is sound because a frame's meaning is a product of its symbols and its parents,
+// and keeps the work per step bounded by the grammar instead of by the number of derivations.
+public class GnfRecognizer implements Recognizer {
+
+    private static final int ACCEPT = -1;
+
+    private final int start;
+    private final boolean acceptsEmpty;
+    private final TerminalAlphabet alphabet = new TerminalAlphabet();
+
+    // The symbols after the leading terminal of every production, with rule indexes for variables
+    // and ~terminal for terminals, followed by the start variable alone as the initial frame.
+    private final int[] symbols;
+    // frameEnd[position] is the end of the production containing position.
+    private final int[] frameEnd;
+    private final int startFrame;
+
+    // The productions of variable v led by terminal t are leads[leadStart[v * terminals + t] ..
+    // leadStart[v * terminals + t + 1]], given by the position of their first symbol after the terminal
+    // or -1 for a lone terminal.
+    private final int[] leadStart;
+    private final int[] leads;
+
+    // terms[rule][term] holds rule indexes for variables and ~symbol for terminals, as for
+    // GrammarCanonicalizer; every term must start with a terminal, except the start rule's empty term.
+    GnfRecognizer(int startRule, int[][][] terms, IntFunction<String> terminalName) {
+        int variableCount = terms.length;
+        start = startRule;
+        boolean empty = false;
+        int symbolCount = 1;
+        int productionCount = 0;
+        for (int a = 0; a < terms.length; a++) {
+            for (int[] term : terms[a]) {
+                if (term.length == 0 && a == startRule) {
+                    empty = true;
+                    continue;
+                }
+                if (term.length == 0 || term[0] >= 0) {
+                    throw new IllegalArgumentException("Not in Greibach normal form: " + Arrays.toString(term));
+                }
+                for (int symbol : term) {
+                    if (symbol < 0) alphabet.add(terminalName.apply(~symbol));
+                }
+                symbolCount += term.length - 1;
+                productionCount++;
+            }
+        }
+        acceptsEmpty = empty;
+
+        int terminals = alphabet.size();
+        int[] leadOf = new int[productionCount];
+        int[] tailOf = new int[productionCount];
+        leadStart = new int[variableCount * terminals + 1];
+        symbols = new int[symbolCount];
+        frameEnd = new int[symbolCount];
+        int position = 0;
+        int p = 0;
+        for (int a = 0; a < terms.length; a++) {
+            for (int[] term : terms[a]) {
+                if (term.length == 0) continue;
+                leadOf[p] = a * terminals + alphabet.add(terminalName.apply(~term[0]));
+                tailOf[p++] = term.length == 1 ? -1 : position;
+                leadStart[leadOf[p - 1] + 1]++;
+                int end = position + term.length - 1;
+                for (int k = 1; k < term.length; k++) {
+                    symbols[position] = term[k] >= 0 ? term[k] : ~alphabet.add(terminalName.apply(~term[k]));
+                    frameEnd[position++] = end;
+                }
+            }
+        }
+        startFrame = position;
+        symbols[startFrame] = startRule;
+        frameEnd[startFrame] = startFrame + 1;
+
+        for (int key = 0; key < variableCount * terminals; key++) {
+            leadStart[key + 1] += leadStart[key];
+        }
+        leads = new int[productionCount];
+        int[] fill = Arrays.copyOf(leadStart, leadStart.length - 1);
+        for (p = 0; p < productionCount; p++) {
+            leads[fill[leadOf[p]]++] = tailOf[p];
+        }
+    }
+
+    // Converts the grammar read from reader to GNF and compiles it. Throws IllegalArgumentException
+    // when the conversion leaves a term that starts with a variable, which substitution can do for
+    // left-recursive grammars; LEFT_CORNER mode handles those.
+    public static GnfRecognizer compile(GrammarReader reader, Algorithm.GnfMode gnfMode) {
+        Algorithm algorithm = new Algorithm(reader, new GrammarWriter(OutputStream.nullOutputStream()));
+        algorithm.setPrintIntermediate(false);
+        algorithm.setGnfMode(gnfMode);
+        algorithm.readData();
+        algorithm.toCNF();
+        algorithm.toGNF();
+        return algorithm.gnfRecognizer();
+    }
+
+    @Override
+    public boolean recognize(CharSequence input) {
+        if (start < 0) return false;
+        int[] tokens = alphabet.tokenize(input.toString());
+        if (tokens == null) return false;
+        if (tokens.length == 0) return acceptsEmpty;
+        return new Search().run(tokens);
+    }
+
+    // The stack graph of one recognition. Frames and parent edges are appended and never removed.
+    private class Search {
+        private int[] framePosition = new int[16];
+        private int[] firstEdge = new int[16];
+        private int frameCount;
+        private int[] edgeTarget = new int[16];
+        private int[] nextEdge = new int[16];
+        private int edgeCount;
+
+        // The frame created in the current step for a position, valid while stamp[position] == step.
+        private final int[] stamp = new int[symbols.length];
+        private final int[] frameAt = new int[symbols.length];
+        private int[] activeStamp = new int[16];
+        private int step;
+
+        private int[] active = new int[16];
+        private int activeCount;
+        private int[] next = new int[16];
+        private int nextCount;
+        private boolean accepting;
+
+        boolean run(int[] tokens) {
+            step = 1;
+            int root = frame(startFrame);
+            addEdge(root, ACCEPT);
+            activate(root);
+            for (int token : tokens) {
+                int[] swap = active;
+                active = next;
+                next = swap;
+                activeCount = nextCount;
+                nextCount = 0;
+                accepting = false;
+                step++;
+                for (int i = 0; i < activeCount; i++) {
+                    advance(active[i], token);
+                }
+                if (nextCount == 0 && !accepting) return false;
+            }
+            return accepting;
+        }
+
+        // Moves frame f past the next input symbol, adding the resulting frames to next.
+        private void advance(int f, int token) {
+            int position = framePosition[f];
+            int symbol = symbols[position];
+            // The frame that continues f once its first symbol is derived, created on first use; -2
+            // when f ends there and its parents continue instead.
+            int rest = position + 1 < frameEnd[position] ? -1 : -2;
+            if (symbol < 0) {
+                if (~symbol != token) return;
+                if (rest == -2) {
+                    activateParents(f);
+                } else {
+                    activate(continuation(f, position + 1));
+                }
+                return;
+            }
+            int key = symbol * alphabet.size() + token;
+            for (int k = leadStart[key]; k < leadStart[key + 1]; k++) {
+                int tail = leads[k];
+                if (rest == -1) rest = continuation(f, position + 1);
+                if (tail == -1) {
+                    if (rest == -2) {
+                        activateParents(f);
+                    } else {
+                        activate(rest);
+                    }
+                    continue;
+                }
+                int g = frame(tail);
+                if (rest == -2) {
+                    for (int e = firstEdge[f]; e != -1; e = nextEdge[e]) {
+                        addEdge(g, edgeTarget[e]);
+                    }
+                } else {
+                    addEdge(g, rest);
+                }
+                activate(g);
+            }
+        }
+
+        // The frame for position in this step whose parents include those of f.
+        private int continuation(int f, int position) {
+            int g = frame(position);
+            for (int e = firstEdge[f]; e != -1; e = nextEdge[e]) {
+                addEdge(g, edgeTarget[e]);
+            }
+            return g;
+        }
+
+        private void activateParents(int f) {
+            for (int e = firstEdge[f]; e != -1; e = nextEdge[e]) {
+                activate(edgeTarget[e]);
+            }
+        }
+
+        private void activate(int f) {
+            if (f == ACCEPT) {
+                accepting = true;
+                return;
+            }
+            if (activeStamp[f] == step) return;
+            activeStamp[f] = step;
+            if (nextCount == next.length) next = Arrays.copyOf(next, nextCount * 2);
+            next[nextCount++] = f;
+        }
+
+        private int frame(int position) {
+            if (stamp[position] == step) return frameAt[position];
+            if (frameCount == framePosition.length) {
+                int capacity = frameCount * 2;
+                framePosition = Arrays.copyOf(framePosition, capacity);
+                firstEdge = Arrays.copyOf(firstEdge, capacity);
+                activeStamp = Arrays.copyOf(activeStamp, capacity);
+            }
+            int f = frameCount++;
+            framePosition[f] = position;
+            firstEdge[f] = -1;
+            stamp[position] = step;
+            frameAt[position] = f;
+            return f;
+        }
+
+        private void addEdge(int f, int target) {
+            for (int e = firstEdge[f]; e != -1; e = nextEdge[e]) {
+                if (edgeTarget[e] == target) return;
+            }
+            if (edgeCount == edgeTarget.length) {
+                edgeTarget = Arrays.copyOf(edgeTarget, edgeCount * 2);
+                nextEdge = Arrays.copyOf(nextEdge, edgeCount * 2);
+            }
+            edgeTarget[edgeCount] = target;
+            nextEdge[edgeCount] = firstEdge[f];
+            firstEdge[f] = edgeCount++;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+// An immutable grammar: rules in order, the first being the start rule, each with the symbol names of
+// its productions. An empty production is epsilon. Symbols that head a rule are variables, the rest
+// terminals, as in the text format.
+public final class Grammar {
+
+    public static final class Rule {
+        public final String variable;
+        public final List<List<String>> productions;
+
+        public Rule(String variable, List<List<String>> productions) {
+            List<List<String>> copy = new ArrayList<>(productions.size());
+            for (List<String> production : productions) {
+                copy.add(Collections.unmodifiableList(new ArrayList<>(production)));
+            }
+            this.variable = variable;
+            this.productions = Collections.unmodifiableList(copy);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Rule)) return false;
+            Rule rule = (Rule) o;
+            return variable.equals(rule.variable) && productions.equals(rule.productions);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * variable.hashCode() + productions.hashCode();
+        }
+    }
+
+    private final List<Rule> rules;
+
+    public Grammar(List<Rule> rules) {
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+    }
+
+    // Parses the input format of Algorithm: a rule count followed by rules like A->aB|b, where ? is
+    // epsilon and X[3] is a single symbol. Productions of a repeated variable are merged.
+    public static Grammar parse(String text) {
+        GrammarReader reader = new GrammarReader(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+        int ruleCount = reader.nextInt();
+        Map<String, List<List<String>>> productions = new LinkedHashMap<>();
+        for (int i = 0; i < ruleCount; i++) {
+            StringTokenizer t1 = new StringTokenizer(reader.next(), "->");
+            List<List<String>> alternatives = productions.computeIfAbsent(t1.nextToken(), v -> new ArrayList<>());
+            StringTokenizer t2 = new StringTokenizer(t1.nextToken(), "|");
+            while (t2.hasMoreTokens()) {
+                alternatives.add(symbolsOf(t2.nextToken()));
+            }
+        }
+
+        List<Rule> rules = new ArrayList<>(productions.size());
+        for (Map.Entry<String, List<List<String>>> entry : productions.entrySet()) {
+            rules.add(new Rule(entry.getKey(), entry.getValue()));
+        }
+        return new Grammar(rules);
+    }
+
+    private static List<String> symbolsOf(String production) {
+        List<String> symbols = new ArrayList<>();
+        if (production.equals("?")) return symbols;
+        for (int i = 0; i < production.length(); i++) {
+            int end = Algorithm.findSubscriptEnd(production, i);
+            if (end == -1) {
+                symbols.add(String.valueOf(production.charAt(i)));
+            } else {
+                symbols.add(production.substring(i, end + 1));
+                i = end;
+            }
+        }
+        return symbols;
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    // The grammar in the input format, so that parse(toInput()) equals this grammar.
+    public String toInput() {
+        StringBuilder input = new StringBuilder();
+        input.append(rules.size()).append('\n');
+        appendRules(input);
+        return input.toString();
+    }
+
+    // The grammar as Algorithm prints a stage, without the closing blank line.
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        appendRules(text);
+        return text.toString();
+    }
+
+    private void appendRules(StringBuilder text) {
+        for (Rule rule : rules) {
+            text.append(rule.variable).append("->");
+            for (int i = 0; i < rule.productions.size(); i++) {
+                if (i != 0) text.append('|');
+                List<String> production = rule.productions.get(i);
+                if (production.isEmpty()) text.append('?');
+                for (String symbol : production) {
+                    text.append(symbol);
+                }
+            }
+            text.append('\n');
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof Grammar && rules.equals(((Grammar) o).rules);
+    }
+
+    @Override
+    public int hashCode() {
+        return rules.hashCode();
+    }
+}
@@ -0,0 +1,236 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+public class GrammarCanonicalizer {
+
+    public static class Result {
+        public final String key;
+        public final int[] labels;
+
+        private Result(String key, int[] labels) {
+            this.key = key;
+            this.labels = labels;
+        }
+    }
+
+    private final int[][][] terms;
+    private final int n;
+
+    private GrammarCanonicalizer(int[][][] terms) {
+        this.terms = terms;
+        this.n = terms.length;
+    }
+
+    // terms[rule][term] holds rule indexes for variables and ~symbol for terminals; terminals are
+    // rewritten in place to ranks by name. The labels and key depend only on the structure and the
+    // terminal names, not on rule order or variable names.
+    public static Result canonicalize(int startRule, int[][][] terms, IntFunction<String> terminalName) {
+        String[] terminalNames = rankTerminals(terms, terminalName);
+        GrammarCanonicalizer canonicalizer = new GrammarCanonicalizer(terms);
+        int[] labels = canonicalizer.label(startRule);
+        return new Result(canonicalizer.digest(startRule, labels, terminalNames), labels);
+    }
+
+    private static String[] rankTerminals(int[][][] terms, IntFunction<String> terminalName) {
+        TreeMap<String, Integer> ranks = new TreeMap<>();
+        for (int[][] rule : terms) {
+            for (int[] term : rule) {
+                for (int symbol : term) {
+                    if (symbol < 0) ranks.put(terminalName.apply(~symbol), 0);
+                }
+            }
+        }
+        String[] names = ranks.keySet().toArray(new String[0]);
+        for (int i = 0; i < names.length; i++) {
+            ranks.put(names[i], i);
+        }
+        for (int[][] rule : terms) {
+            for (int[] term : rule) {
+                for (int i = 0; i < term.length; i++) {
+                    if (term[i] < 0) term[i] = ~ranks.get(terminalName.apply(~term[i]));
+                }
+            }
+        }
+        return names;
+    }
+
+    private int[] label(int startRule) {
+        if (n == 0) return new int[0];
+        int[] colors = rankKeys(depths(startRule));
+        while (true) {
+            colors = refine(colors);
+            int individual = pickIndividual(colors);
+            if (individual == -1) return colors;
+            int[] split = new int[n];
+            for (int i = 0; i < n; i++) {
+                split[i] = 2 * colors[i] + (i == individual ? 0 : 1);
+            }
+            colors = rankKeys(split);
+        }
+    }
+
+    // Distance from the start rule is invariant and already separates long chains, which would
+    // otherwise take one refinement round per rule.
+    private int[] depths(int startRule) {
+        int[] depth = new int[n];
+        Arrays.fill(depth, n);
+        int[] queue = new int[n];
+        int head = 0;
+        int tail = 0;
+        depth[startRule] = 0;
+        queue[tail++] = startRule;
+        while (head < tail) {
+            int rule = queue[head++];
+            for (int[] term : terms[rule]) {
+                for (int symbol : term) {
+                    if (symbol >= 0 && depth[symbol] == n) {
+                        depth[symbol] = depth[rule] + 1;
+                        queue[tail++] = symbol;
+                    }
+                }
+            }
+        }
+        return depth;
+    }
+
+    private int[] refine(int[] colors) {
+        int classes = count(colors);
+        while (true) {
+            int[][] signatures = new int[n][];
+            for (int i = 0; i < n; i++) {
+                signatures[i] = signature(i, colors);
+            }
+            int[] refined = rank(signatures);
+            int refinedClasses = count(refined);
+            if (refinedClasses == classes) return refined;
+            colors = refined;
+            classes = refinedClasses;
+        }
+    }
+
+    private int[] signature(int rule, int[] colors) {
+        int[][] mapped = new int[terms[rule].length][];
+        int length = 2;
+        for (int t = 0; t < mapped.length; t++) {
+            mapped[t] = relabel(terms[rule][t], colors);
+            length += 1 + mapped[t].length;
+        }
+        Arrays.sort(mapped, Arrays::compare);
+
+        int[] signature = new int[length];
+        int k = 0;
+        signature[k++] = colors[rule];
+        signature[k++] = mapped.length;
+        for (int[] term : mapped) {
+            signature[k++] = term.length;
+            System.arraycopy(term, 0, signature, k, term.length);
+            k += term.length;
+        }
+        return signature;
+    }
+
+    private static int[] relabel(int[] term, int[] labels) {
+        int[] mapped = new int[term.length];
+        for (int i = 0; i < term.length; i++) {
+            mapped[i] = term[i] < 0 ? term[i] : labels[term[i]];
+        }
+        return mapped;
+    }
+
+    // The first member of the smallest ambiguous class; which member is picked depends on the input
+    // order, so highly symmetric grammars may get different keys for different orders.
+    private int pickIndividual(int[] colors) {
+        int[] sizes = new int[n];
+        for (int color : colors) sizes[color]++;
+        int best = -1;
+        for (int color = 0; color < n; color++) {
+            if (sizes[color] > 1 && (best == -1 || sizes[color] < sizes[best])) best = color;
+        }
+        if (best == -1) return -1;
+        for (int i = 0; i < n; i++) {
+            if (colors[i] == best) return i;
+        }
+        return -1;
+    }
+
+    private int[] rank(int[][] signatures) {
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Arrays.compare(signatures[a], signatures[b]));
+        int[] ranks = new int[n];
+        int rank = 0;
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && !Arrays.equals(signatures[order[i]], signatures[order[i - 1]])) rank = i;
+            ranks[order[i]] = rank;
+        }
+        return ranks;
+    }
+
+    private int[] rankKeys(int[] keys) {
+        int[][] signatures = new int[n][];
+        for (int i = 0; i < n; i++) signatures[i] = new int[]{keys[i]};
+        return rank(signatures);
+    }
+
+    private static int count(int[] colors) {
+        boolean[] seen = new boolean[colors.length];
+        int count = 0;
+        for (int color : colors) {
+            if (!seen[color]) {
+                seen[color] = true;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private String digest(int startRule, int[] labels, String[] terminalNames) {
+        int[] ruleOfLabel = new int[n];
+        for (int i = 0; i < n; i++) ruleOfLabel[labels[i]] = i;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(terminalNames.length);
+            for (String name : terminalNames) {
+                byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(encoded.length);
+                out.write(encoded);
+            }
+            out.writeInt(n);
+            out.writeInt(n == 0 ? -1 : labels[startRule]);
+            for (int label = 0; label < n; label++) {
+                int[][] mapped = new int[terms[ruleOfLabel[label]].length][];
+                for (int t = 0; t < mapped.length; t++) {
+                    mapped[t] = relabel(terms[ruleOfLabel[label]][t], labels);
+                }
+                Arrays.sort(mapped, Arrays::compare);
+                out.writeInt(mapped.length);
+                for (int[] term : mapped) {
+                    out.writeInt(term.length);
+                    for (int symbol : term) out.writeInt(symbol);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray());
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
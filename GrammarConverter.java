@@ -0,0 +1,116 @@
+import java.util.concurrent.ForkJoinPool;
+
+// Converts grammars to CNF and GNF. A converter only holds its settings, and every conversion runs on
+// its own Algorithm and SymbolTable, so one instance can be shared by any number of threads. The
+// cache, if any, is the only state conversions share.
+public final class GrammarConverter {
+
+    // The CNF and GNF of one conversion.
+    public static final class Conversion {
+        public final Grammar cnf;
+        public final Grammar gnf;
+
+        private Conversion(Grammar cnf, Grammar gnf) {
+            this.cnf = cnf;
+            this.gnf = gnf;
+        }
+    }
+
+    private final Algorithm.GnfMode gnfMode;
+    private final Algorithm.SubscriptOrder subscriptOrder;
+    private final ConversionCache cache;
+    private final ForkJoinPool pool;
+    private final ConversionBudget budget;
+
+    public GrammarConverter() {
+        this(Algorithm.GnfMode.SUBSTITUTION);
+    }
+
+    public GrammarConverter(Algorithm.GnfMode gnfMode) {
+        this(gnfMode, null, null);
+    }
+
+    public GrammarConverter(Algorithm.GnfMode gnfMode, ConversionCache cache, ForkJoinPool pool) {
+        this(gnfMode, cache, pool, null);
+    }
+
+    // cache, pool and budget may be null; see Algorithm.setCache, setPool and setBudget. A conversion
+    // over budget throws BudgetExceededException.
+    public GrammarConverter(Algorithm.GnfMode gnfMode, ConversionCache cache, ForkJoinPool pool,
+                            ConversionBudget budget) {
+        this(gnfMode, Algorithm.SubscriptOrder.FIRST_APPEARANCE, cache, pool, budget);
+    }
+
+    // subscriptOrder only affects the substitution GNF; see Algorithm.setSubscriptOrder.
+    public GrammarConverter(Algorithm.GnfMode gnfMode, Algorithm.SubscriptOrder subscriptOrder,
+                            ConversionCache cache, ForkJoinPool pool, ConversionBudget budget) {
+        if (gnfMode == null) {
+            throw new IllegalArgumentException("gnfMode must not be null");
+        }
+        if (subscriptOrder == null) {
+            throw new IllegalArgumentException("subscriptOrder must not be null");
+        }
+        this.gnfMode = gnfMode;
+        this.subscriptOrder = subscriptOrder;
+        this.cache = cache;
+        this.pool = pool;
+        this.budget = budget;
+    }
+
+    public Algorithm.GnfMode getGnfMode() {
+        return gnfMode;
+    }
+
+    public Algorithm.SubscriptOrder getSubscriptOrder() {
+        return subscriptOrder;
+    }
+
+    // Does not consult the cache, which only holds complete conversions.
+    public Grammar toCnf(Grammar grammar) {
+        Algorithm algorithm = configure(new Algorithm(grammar, null));
+        algorithm.readData();
+        algorithm.toCNF();
+        return algorithm.cnfGrammar();
+    }
+
+    public Grammar toGnf(Grammar grammar) {
+        Algorithm algorithm = configure(new Algorithm(grammar, null));
+        algorithm.readData();
+        algorithm.convert();
+        return algorithm.gnfGrammar();
+    }
+
+    // Both grammars from one run, where toCnf and toGnf would each run the CNF steps.
+    public Conversion convert(Grammar grammar) {
+        Algorithm algorithm = configure(new Algorithm(grammar, null));
+        algorithm.readData();
+        algorithm.convert();
+        return new Conversion(algorithm.cnfGrammar(), algorithm.gnfGrammar());
+    }
+
+    // An Algorithm with these settings that prints the conversion of the text grammar read from reader
+    // to writer, streaming the last stage, as the command line does.
+    public Algorithm newAlgorithm(GrammarReader reader, GrammarWriter writer, boolean printIntermediate) {
+        return printing(new Algorithm(reader, writer), printIntermediate);
+    }
+
+    public Algorithm newAlgorithm(BinaryGrammar input, GrammarWriter writer, boolean printIntermediate) {
+        return printing(new Algorithm(input, writer), printIntermediate);
+    }
+
+    private Algorithm printing(Algorithm algorithm, boolean printIntermediate) {
+        configure(algorithm);
+        algorithm.setPrintIntermediate(printIntermediate);
+        algorithm.setStreamOutput(true);
+        return algorithm;
+    }
+
+    private Algorithm configure(Algorithm algorithm) {
+        algorithm.setGnfMode(gnfMode);
+        algorithm.setSubscriptOrder(subscriptOrder);
+        algorithm.setCache(cache);
+        algorithm.setPool(pool);
+        algorithm.setBudget(budget);
+        return algorithm;
+    }
+}
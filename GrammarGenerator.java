@@ -0,0 +1,276 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class GrammarGenerator {
+
+    public enum Kind {
+        RANDOM,
+        LEFT_RECURSIVE,
+        NULLABLE,
+        UNIT_CHAIN,
+        TANGLED
+    }
+
+    private static final String TERMINALS = "abcdefgh";
+
+    private GrammarGenerator() {
+    }
+
+    public static List<String> generate(Kind kind, int size, long seed) {
+        Random random = new Random(seed);
+        switch (kind) {
+            case RANDOM:
+                return random(size, random);
+            case LEFT_RECURSIVE:
+                return leftRecursive(size, random);
+            case NULLABLE:
+                return nullable(size, random);
+            case UNIT_CHAIN:
+                return unitChain(size, random);
+            case TANGLED:
+                return tangled(size, random);
+            default:
+                throw new IllegalArgumentException("Unknown kind " + kind);
+        }
+    }
+
+    public static String toInput(List<String> rules) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(rules.size()).append('\n');
+        for (String rule : rules) {
+            builder.append(rule).append('\n');
+        }
+        return builder.toString();
+    }
+
+    // Leading symbols only point forward, so the GNF substitution terminates; bodies mix terminals and variables.
+    private static List<String> random(int size, Random random) {
+        List<String> rules = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            List<String> terms = new ArrayList<>();
+            int alternatives = 2 + random.nextInt(2);
+            for (int a = 0; a < alternatives; a++) {
+                StringBuilder term = new StringBuilder();
+                int length = 1 + random.nextInt(3);
+                for (int k = 0; k < length; k++) {
+                    boolean lead = k == 0;
+                    if (i + 1 < size && random.nextInt(lead ? 4 : 2) == 0) {
+                        term.append(variable(i + 1 + random.nextInt(Math.min(3, size - i - 1))));
+                    } else {
+                        term.append(terminal(random));
+                    }
+                }
+                terms.add(term.toString());
+            }
+            if (i + 1 < size) {
+                terms.add(terminal(random) + variable(i + 1));
+            }
+            terms.add(String.valueOf(terminal(random)));
+            rules.add(rule(i, terms));
+        }
+        return rules;
+    }
+
+    // Every variable is directly left-recursive, and the recursion continues into the next variable.
+    private static List<String> leftRecursive(int size, Random random) {
+        List<String> rules = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            List<String> terms = new ArrayList<>();
+            terms.add(variable(i) + terminal(random));
+            if (i + 1 < size) {
+                terms.add(variable(i) + variable(i + 1));
+                terms.add(terminal(random) + variable(i + 1));
+            }
+            terms.add(String.valueOf(terminal(random)));
+            rules.add(rule(i, terms));
+        }
+        return rules;
+    }
+
+    // Every variable is nullable and right-hand sides carry several nullable variables each.
+    private static List<String> nullable(int size, Random random) {
+        List<String> rules = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            List<String> terms = new ArrayList<>();
+            StringBuilder term = new StringBuilder();
+            term.append(terminal(random));
+            for (int k = 1; k <= 3 && i + k < size; k++) {
+                term.append(variable(i + k));
+            }
+            terms.add(term.toString());
+            if (i + 1 < size) {
+                terms.add(terminal(random) + variable(i + 1) + terminal(random) + variable(i + 1));
+            }
+            terms.add("?");
+            rules.add(rule(i, terms));
+        }
+        return rules;
+    }
+
+    // A long chain of unit productions that closes into a cycle.
+    private static List<String> unitChain(int size, Random random) {
+        List<String> rules = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            List<String> terms = new ArrayList<>();
+            terms.add(variable((i + 1) % size));
+            if (i % 4 == 0) {
+                terms.add(variable((i + 2) % size));
+            }
+            terms.add(terminal(random) + variable((i + 3) % size));
+            terms.add(String.valueOf(terminal(random)));
+            rules.add(rule(i, terms));
+        }
+        return rules;
+    }
+
+    // Leading variables point at the previous rule as well as the next two, never at their own, so the
+    // left corners form cycles that the first-appearance subscripts run against.
+    private static List<String> tangled(int size, Random random) {
+        List<String> rules = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            List<String> terms = new ArrayList<>();
+            int alternatives = 2 + random.nextInt(2);
+            for (int a = 0; a < alternatives; a++) {
+                if (size > 1 && random.nextInt(3) == 0) {
+                    int corner = Math.floorMod(i - 1 + random.nextInt(4), size);
+                    terms.add(variable(corner == i ? (i + 1) % size : corner) + terminal(random));
+                } else {
+                    terms.add(terminal(random) + variable((i + 1 + random.nextInt(3)) % size));
+                }
+            }
+            terms.add(String.valueOf(terminal(random)));
+            rules.add(rule(i, terms));
+        }
+        return rules;
+    }
+
+    // Sentences of the language of rules, in the format generate returns, about length terminals long
+    // where the language allows. Until the sentence can reach length, alternatives that contain a
+    // variable are picked at random; then the shortest completion is taken.
+    public static List<String> sentences(List<String> rules, int count, int length, long seed) {
+        Map<String, Integer> variables = new HashMap<>();
+        for (String rule : rules) {
+            variables.putIfAbsent(rule.substring(0, rule.indexOf("->")), variables.size());
+        }
+        List<List<List<String>>> alternatives = new ArrayList<>();
+        for (int v = 0; v < variables.size(); v++) {
+            alternatives.add(new ArrayList<>());
+        }
+        for (String rule : rules) {
+            int arrow = rule.indexOf("->");
+            for (String term : rule.substring(arrow + 2).split("\\|")) {
+                alternatives.get(variables.get(rule.substring(0, arrow))).add(symbols(term));
+            }
+        }
+
+        // shortest[v] is the fewest terminals v derives, reached through alternative shortestVia[v].
+        // An alternative only replaces another when it is strictly shorter, so following shortestVia
+        // always terminates.
+        int n = variables.size();
+        int[] shortest = new int[n];
+        int[] shortestVia = new int[n];
+        Arrays.fill(shortest, Integer.MAX_VALUE);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int v = 0; v < n; v++) {
+                for (int a = 0; a < alternatives.get(v).size(); a++) {
+                    long total = shortest(alternatives.get(v).get(a), variables, shortest);
+                    if (total < shortest[v]) {
+                        shortest[v] = (int) total;
+                        shortestVia[v] = a;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        // The productive alternatives of every variable that contain a variable, which keep a sentence growing.
+        List<List<List<String>>> growing = new ArrayList<>();
+        for (int v = 0; v < n; v++) {
+            List<List<String>> grows = new ArrayList<>();
+            for (List<String> alternative : alternatives.get(v)) {
+                boolean hasVariable = false;
+                for (String symbol : alternative) {
+                    if (variables.containsKey(symbol)) hasVariable = true;
+                }
+                if (hasVariable && shortest(alternative, variables, shortest) < Integer.MAX_VALUE) {
+                    grows.add(alternative);
+                }
+            }
+            growing.add(grows);
+        }
+
+        List<String> sentences = new ArrayList<>(count);
+        if (n == 0 || shortest[0] == Integer.MAX_VALUE) return sentences;
+        Random random = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            StringBuilder sentence = new StringBuilder();
+            int produced = 0;
+            long pending = shortest[0];
+            // Bounds the random expansions of unit cycles, which produce nothing.
+            int expansions = 0;
+            Deque<String> stack = new ArrayDeque<>();
+            stack.push(rules.get(0).substring(0, rules.get(0).indexOf("->")));
+            while (!stack.isEmpty()) {
+                String symbol = stack.pop();
+                Integer v = variables.get(symbol);
+                if (v == null) {
+                    sentence.append(symbol);
+                    produced++;
+                    pending--;
+                    continue;
+                }
+                List<String> chosen = alternatives.get(v).get(shortestVia[v]);
+                List<List<String>> grows = growing.get(v);
+                if (produced + pending < length && !grows.isEmpty() && expansions++ < 64 * length) {
+                    chosen = grows.get(random.nextInt(grows.size()));
+                }
+                pending += shortest(chosen, variables, shortest) - shortest[v];
+                for (int k = chosen.size() - 1; k >= 0; k--) {
+                    stack.push(chosen.get(k));
+                }
+            }
+            sentences.add(sentence.toString());
+        }
+        return sentences;
+    }
+
+    private static long shortest(List<String> symbols, Map<String, Integer> variables, int[] shortest) {
+        long total = 0;
+        for (String symbol : symbols) {
+            Integer v = variables.get(symbol);
+            total += v == null ? 1 : shortest[v];
+        }
+        return total;
+    }
+
+    private static List<String> symbols(String term) {
+        List<String> symbols = new ArrayList<>();
+        if (term.equals("?")) return symbols;
+        for (int i = 0; i < term.length(); i++) {
+            int end = Algorithm.findSubscriptEnd(term, i);
+            symbols.add(end == -1 ? String.valueOf(term.charAt(i)) : term.substring(i, end + 1));
+            if (end != -1) i = end;
+        }
+        return symbols;
+    }
+
+    private static String rule(int variable, List<String> terms) {
+        return variable(variable) + "->" + String.join("|", terms);
+    }
+
+    private static String variable(int index) {
+        return "V[" + index + "]";
+    }
+
+    private static char terminal(Random random) {
+        return TERMINALS.charAt(random.nextInt(TERMINALS.length()));
+    }
+}
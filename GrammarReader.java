@@ -0,0 +1,114 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+public class GrammarReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private byte[] token = new byte[64];
+
+    public GrammarReader(InputStream in) {
+        this(Channels.newChannel(in));
+    }
+
+    public GrammarReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.buffer.flip();
+    }
+
+    private GrammarReader(ByteBuffer mapped) {
+        this.channel = null;
+        this.buffer = mapped;
+    }
+
+    public static GrammarReader open(Path path) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new GrammarReader(file.map(FileChannel.MapMode.READ_ONLY, 0, file.size()));
+        }
+    }
+
+    public boolean hasNext() {
+        while (true) {
+            int b = peek();
+            if (b == -1) return false;
+            if (b > ' ') return true;
+            buffer.get();
+        }
+    }
+
+    public int nextInt() {
+        String token = next();
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("Expected a number but found \"" + token + "\"");
+        }
+    }
+
+    public String next() {
+        int b = read();
+        while (b != -1 && b <= ' ') {
+            b = read();
+        }
+        if (b == -1) {
+            throw new NoSuchElementException("Unexpected end of input");
+        }
+
+        int length = 0;
+        while (b != -1 && b > ' ') {
+            if (length == token.length) {
+                token = Arrays.copyOf(token, length * 2);
+            }
+            token[length++] = (byte) b;
+            b = read();
+        }
+        return new String(token, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private int read() {
+        int b = peek();
+        if (b != -1) {
+            buffer.get();
+        }
+        return b;
+    }
+
+    private int peek() {
+        if (!buffer.hasRemaining()) {
+            if (channel == null) return -1;
+            buffer.clear();
+            try {
+                int read;
+                do {
+                    read = channel.read(buffer);
+                } while (read == 0);
+                buffer.flip();
+                if (read == -1) return -1;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return buffer.get(buffer.position()) & 0xFF;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
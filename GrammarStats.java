@@ -0,0 +1,19 @@
+public class GrammarStats {
+
+    public final int ruleCount;
+    public final int termCount;
+    public final long symbolCount;
+    public final int maxTermLength;
+
+    public GrammarStats(int ruleCount, int termCount, long symbolCount, int maxTermLength) {
+        this.ruleCount = ruleCount;
+        this.termCount = termCount;
+        this.symbolCount = symbolCount;
+        this.maxTermLength = maxTermLength;
+    }
+
+    @Override
+    public String toString() {
+        return ruleCount + " rules, " + termCount + " terms, " + symbolCount + " symbols, max term " + maxTermLength;
+    }
+}
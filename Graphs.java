@@ -0,0 +1,86 @@
+import java.util.Arrays;
+
+public class Graphs {
+
+    private Graphs() {
+    }
+
+    // Tarjan's algorithm without recursion. Components are numbered in the order they are closed,
+    // so every edge leaving a component points to a component with a smaller number.
+    public static int[] stronglyConnectedComponents(int[][] edges) {
+        int n = edges.length;
+        int[] index = new int[n];
+        int[] low = new int[n];
+        int[] component = new int[n];
+        int[] stack = new int[n];
+        int[] callStack = new int[n];
+        int[] edgePosition = new int[n];
+        Arrays.fill(index, -1);
+        Arrays.fill(component, -1);
+
+        int counter = 0;
+        int componentCount = 0;
+        int stackSize = 0;
+        for (int root = 0; root < n; root++) {
+            if (index[root] != -1) continue;
+
+            int depth = 0;
+            callStack[0] = root;
+            index[root] = low[root] = counter++;
+            stack[stackSize++] = root;
+
+            while (depth >= 0) {
+                int v = callStack[depth];
+                if (edgePosition[v] < edges[v].length) {
+                    int w = edges[v][edgePosition[v]++];
+                    if (index[w] == -1) {
+                        index[w] = low[w] = counter++;
+                        stack[stackSize++] = w;
+                        callStack[++depth] = w;
+                    } else if (component[w] == -1) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                } else {
+                    if (low[v] == index[v]) {
+                        int w;
+                        do {
+                            w = stack[--stackSize];
+                            component[w] = componentCount;
+                        } while (w != v);
+                        componentCount++;
+                    }
+                    depth--;
+                    if (depth >= 0) {
+                        int u = callStack[depth];
+                        low[u] = Math.min(low[u], low[v]);
+                    }
+                }
+            }
+        }
+
+        return component;
+    }
+
+    public static int count(int[] component) {
+        int count = 0;
+        for (int c : component) {
+            count = Math.max(count, c + 1);
+        }
+        return count;
+    }
+
+    public static int[] sortByComponent(int[] component) {
+        int[] start = new int[count(component) + 1];
+        for (int c : component) {
+            start[c + 1]++;
+        }
+        for (int c = 1; c < start.length; c++) {
+            start[c] += start[c - 1];
+        }
+        int[] sorted = new int[component.length];
+        for (int i = 0; i < component.length; i++) {
+            sorted[start[component[i]]++] = i;
+        }
+        return sorted;
+    }
+}
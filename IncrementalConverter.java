@@ -0,0 +1,89 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+// Keeps a grammar open for editing and reconverts it after each edit. The output is always identical
+// to converting toInput() from scratch; only per-rule results whose inputs did not change are reused.
+public class IncrementalConverter {
+
+    private final Map<String, List<String>> productions = new LinkedHashMap<>();
+    private final SymbolTable symbols = new SymbolTable();
+    private final Algorithm.Memo memo = new Algorithm.Memo();
+    private final boolean printIntermediate;
+    private long reused;
+    private long recomputed;
+
+    public IncrementalConverter(boolean printIntermediate) {
+        this.printIntermediate = printIntermediate;
+    }
+
+    public void load(String input) {
+        productions.clear();
+        GrammarReader reader = new GrammarReader(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+        int ruleCount = reader.nextInt();
+        for (int i = 0; i < ruleCount; i++) {
+            StringTokenizer t1 = new StringTokenizer(reader.next(), "->");
+            String variable = t1.nextToken();
+            StringTokenizer t2 = new StringTokenizer(t1.nextToken(), "|");
+            while (t2.hasMoreTokens()) {
+                addProduction(variable, t2.nextToken());
+            }
+        }
+    }
+
+    public void addProduction(String variable, String production) {
+        productions.computeIfAbsent(variable, v -> new ArrayList<>()).add(production);
+    }
+
+    public boolean removeProduction(String variable, String production) {
+        List<String> alternatives = productions.get(variable);
+        if (alternatives == null || !alternatives.remove(production)) return false;
+        if (alternatives.isEmpty()) {
+            productions.remove(variable);
+        }
+        return true;
+    }
+
+    public String toInput() {
+        StringBuilder input = new StringBuilder();
+        input.append(productions.size()).append('\n');
+        for (Map.Entry<String, List<String>> entry : productions.entrySet()) {
+            input.append(entry.getKey()).append("->").append(String.join("|", entry.getValue())).append('\n');
+        }
+        return input.toString();
+    }
+
+    public String convert() {
+        long reusedBefore = memo.getReused();
+        long recomputedBefore = memo.getRecomputed();
+
+        symbols.reset();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Algorithm algorithm = new Algorithm(
+                new GrammarReader(new ByteArrayInputStream(toInput().getBytes(StandardCharsets.UTF_8))),
+                new GrammarWriter(out),
+                symbols);
+        algorithm.setPrintIntermediate(printIntermediate);
+        algorithm.setMemo(memo);
+        try {
+            algorithm.start();
+        } finally {
+            reused = memo.getReused() - reusedBefore;
+            recomputed = memo.getRecomputed() - recomputedBefore;
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    public long getReusedRules() {
+        return reused;
+    }
+
+    public long getRecomputedRules() {
+        return recomputed;
+    }
+}
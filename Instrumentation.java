@@ -0,0 +1,24 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+public class Instrumentation {
+
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+    private Instrumentation() {
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return null;
+        com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+        if (!counter.isThreadAllocatedMemorySupported()) return null;
+        counter.setThreadAllocatedMemoryEnabled(true);
+        return counter;
+    }
+
+    // Bytes allocated so far by the current thread, or 0 when the JVM cannot tell.
+    public static long allocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -1,8 +1,384 @@
-public class Main {
-
-    public static void main(String[] args) {
-        Algorithm algorithm = new Algorithm();
-        algorithm.start();
-    }
-
-}
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class Main {
+
+    private static final int DEFAULT_CACHE_SIZE = 256;
+    private static final long DEFAULT_TIMEOUT_MILLIS = 10_000;
+
+    public static void main(String[] args) throws IOException {
+        String inputPath = null;
+        String outputPath = null;
+        String batchPath = null;
+        String metricsPath = null;
+        String cacheDirectory = null;
+        String recognizePath = null;
+        String recognizerName = "cyk";
+        String generatedClass = null;
+        String binaryPath = null;
+        BinaryGrammar.Form binaryForm = BinaryGrammar.Form.GNF;
+        int cacheSize = 0;
+        int servePort = -1;
+        int maxConcurrent = Runtime.getRuntime().availableProcessors();
+        long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+        long maxProductions = Long.MAX_VALUE;
+        long maxSymbols = Long.MAX_VALUE;
+        long maxMillis = Long.MAX_VALUE;
+        Algorithm.GnfMode gnfMode = Algorithm.GnfMode.SUBSTITUTION;
+        Algorithm.SubscriptOrder subscriptOrder = Algorithm.SubscriptOrder.FIRST_APPEARANCE;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int substitutionThreads = 0;
+        boolean printIntermediate = true;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-i":
+                    inputPath = args[++i];
+                    break;
+                case "-o":
+                    outputPath = args[++i];
+                    break;
+                case "--batch":
+                    batchPath = args[++i];
+                    break;
+                case "-j":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--metrics":
+                    metricsPath = args[++i];
+                    break;
+                case "--cache-dir":
+                    cacheDirectory = args[++i];
+                    break;
+                case "--cache-size":
+                    cacheSize = Integer.parseInt(args[++i]);
+                    break;
+                case "--parallel-substitution":
+                    substitutionThreads = Integer.parseInt(args[++i]);
+                    break;
+                case "--gnf":
+                    gnfMode = parseGnfMode(args[++i]);
+                    break;
+                case "--subscript-order":
+                    subscriptOrder = parseSubscriptOrder(args[++i]);
+                    break;
+                case "--recognize":
+                    recognizePath = args[++i];
+                    break;
+                case "--recognizer":
+                    recognizerName = args[++i];
+                    break;
+                case "--generate-recognizer":
+                    generatedClass = args[++i];
+                    break;
+                case "--save-binary":
+                    binaryPath = args[++i];
+                    break;
+                case "--binary-form":
+                    binaryForm = parseBinaryForm(args[++i]);
+                    break;
+                case "--serve":
+                    servePort = Integer.parseInt(args[++i]);
+                    break;
+                case "--max-concurrent":
+                    maxConcurrent = Integer.parseInt(args[++i]);
+                    break;
+                case "--timeout":
+                    timeoutMillis = Long.parseLong(args[++i]);
+                    break;
+                case "--max-productions":
+                    maxProductions = Long.parseLong(args[++i]);
+                    break;
+                case "--max-symbols":
+                    maxSymbols = Long.parseLong(args[++i]);
+                    break;
+                case "--max-millis":
+                    maxMillis = Long.parseLong(args[++i]);
+                    break;
+                case "--no-intermediate":
+                    printIntermediate = false;
+                    break;
+                default:
+                    usage();
+            }
+        }
+
+        ConversionCache cache = null;
+        if (cacheDirectory != null || cacheSize > 0) {
+            cache = new ConversionCache(cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE,
+                    cacheDirectory == null ? null : Paths.get(cacheDirectory));
+        }
+
+        ConversionBudget budget = maxProductions == Long.MAX_VALUE && maxSymbols == Long.MAX_VALUE
+                && maxMillis == Long.MAX_VALUE ? null : new ConversionBudget(maxProductions, maxSymbols, maxMillis);
+
+        if (servePort >= 0) {
+            ConversionServer server = new ConversionServer(servePort, maxConcurrent, timeoutMillis, subscriptOrder, cache,
+                    budget);
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+            server.start();
+            System.err.println("Serving on http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+                    + server.getPort() + "/ with " + (server.usesVirtualThreads() ? "virtual" : "platform")
+                    + " threads, " + maxConcurrent + " concurrent conversions, " + timeoutMillis + " ms timeout");
+            return;
+        }
+
+        try (OutputStream out = outputPath == null ? null : Files.newOutputStream(Paths.get(outputPath))) {
+            GrammarWriter writer = new GrammarWriter(out == null ? System.out : out);
+            if (batchPath != null) {
+                if (!runBatch(batchPath, threads, printIntermediate, gnfMode, subscriptOrder, metricsPath, cache, budget,
+                        writer)) {
+                    System.exit(1);
+                }
+                return;
+            }
+
+            BinaryGrammar binary = inputPath != null && BinaryGrammar.isBinary(Paths.get(inputPath))
+                    ? BinaryGrammar.open(Paths.get(inputPath))
+                    : null;
+            if (binary != null && binary.form() != BinaryGrammar.Form.RAW) {
+                runConverted(binary, generatedClass, recognizePath, recognizerName, threads, writer);
+                return;
+            }
+
+            if (binary != null && (generatedClass != null || recognizePath != null)) {
+                System.err.println("Recognizers need a binary grammar saved with --binary-form cnf or gnf");
+                System.exit(2);
+            }
+
+            GrammarReader reader = binary != null ? null : inputPath == null
+                    ? new GrammarReader(System.in)
+                    : GrammarReader.open(Paths.get(inputPath));
+            if (generatedClass != null) {
+                try {
+                    writer.write(RecognizerGenerator.compile(reader, gnfMode).source(generatedClass));
+                    writer.flush();
+                } finally {
+                    reader.close();
+                }
+                return;
+            }
+            if (recognizePath != null) {
+                try {
+                    recognize(compileRecognizer(recognizerName, reader, gnfMode), recognizePath, threads, writer);
+                } finally {
+                    reader.close();
+                }
+                return;
+            }
+            ConversionReport report = metricsPath == null ? null : new ConversionReport();
+            ForkJoinPool pool = substitutionThreads > 0 ? new ForkJoinPool(substitutionThreads) : null;
+            boolean overBudget = false;
+            try {
+                GrammarConverter converter = new GrammarConverter(gnfMode, subscriptOrder, cache, pool, budget);
+                Algorithm algorithm = binary != null
+                        ? converter.newAlgorithm(binary, writer, printIntermediate)
+                        : converter.newAlgorithm(reader, writer, printIntermediate);
+                algorithm.setListener(report);
+                if (binaryPath != null) {
+                    algorithm.setBinaryOutput(binaryForm, Paths.get(binaryPath));
+                }
+                algorithm.start();
+            } catch (BudgetExceededException e) {
+                writer.flush();
+                System.err.println("Aborted: " + e.getMessage());
+                overBudget = true;
+            } finally {
+                if (reader != null) {
+                    reader.close();
+                }
+                if (pool != null) {
+                    pool.shutdown();
+                }
+                if (report != null) {
+                    writeMetrics(metricsPath, report.toJson());
+                }
+            }
+            if (overBudget) {
+                System.exit(3);
+            }
+        }
+    }
+
+    // A CNF or GNF binary grammar is used as it is: printed, or compiled to a recognizer of its form
+    // without converting anything.
+    private static void runConverted(BinaryGrammar binary, String generatedClass, String recognizePath,
+                                     String recognizerName, int threads, GrammarWriter writer) throws IOException {
+        try {
+            if (generatedClass != null) {
+                writer.write(binary.recognizerGenerator().source(generatedClass));
+                writer.flush();
+            } else if (recognizePath != null) {
+                recognize(loadRecognizer(recognizerName, binary), recognizePath, threads, writer);
+            } else {
+                binary.writeText(writer);
+                writer.flush();
+            }
+        } catch (IllegalStateException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    private static boolean runBatch(String path, int threads, boolean printIntermediate, Algorithm.GnfMode gnfMode,
+                                    Algorithm.SubscriptOrder subscriptOrder, String metricsPath, ConversionCache cache, ConversionBudget budget,
+                                    GrammarWriter writer)
+            throws IOException {
+        List<BatchConverter.Job> jobs = BatchConverter.readJobs(Paths.get(path));
+        BatchConverter converter = new BatchConverter(threads, printIntermediate);
+        converter.setCollectMetrics(metricsPath != null);
+        converter.setCache(cache);
+        converter.setBudget(budget);
+        converter.setGnfMode(gnfMode);
+        converter.setSubscriptOrder(subscriptOrder);
+        List<BatchConverter.Result> results = converter.convert(jobs);
+
+        int failed = 0;
+        for (BatchConverter.Result result : results) {
+            if (result.isSuccess()) {
+                writer.write("# " + result.name + " OK\n");
+                writer.write(result.output);
+            } else {
+                failed++;
+                writer.write("# " + result.name + " FAILED " + result.error + "\n\n");
+            }
+        }
+        writer.flush();
+        System.err.println("Converted " + (results.size() - failed) + " of " + results.size() + " grammars");
+        if (cache != null) {
+            System.err.println("Cache: " + cache);
+        }
+
+        if (metricsPath != null) {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < results.size(); i++) {
+                if (i != 0) json.append(',');
+                json.append("{\"grammar\":");
+                ConversionReport.appendString(json, results.get(i).name);
+                json.append(",\"success\":").append(results.get(i).isSuccess()).append(",\"report\":");
+                results.get(i).report.appendJson(json);
+                json.append('}');
+            }
+            writeMetrics(metricsPath, json.append(']').toString());
+        }
+        return failed == 0;
+    }
+
+    // Prints "yes" or "no" and the word for every line of the words file.
+    private static void recognize(Recognizer recognizer, String wordsPath, int threads, GrammarWriter writer)
+            throws IOException {
+        List<String> words = Files.readAllLines(Paths.get(wordsPath), StandardCharsets.UTF_8);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            boolean[] accepted = recognizer.recognizeAll(words, pool);
+            for (int i = 0; i < words.size(); i++) {
+                writer.write((accepted[i] ? "yes " : "no ") + words.get(i) + "\n");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } finally {
+            pool.shutdown();
+        }
+        writer.flush();
+    }
+
+    private static void writeMetrics(String path, String json) throws IOException {
+        if (path.equals("-")) {
+            System.err.println(json);
+        } else {
+            Files.write(Paths.get(path), json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Algorithm.GnfMode parseGnfMode(String name) {
+        switch (name) {
+            case "substitution":
+                return Algorithm.GnfMode.SUBSTITUTION;
+            case "left-corner":
+                return Algorithm.GnfMode.LEFT_CORNER;
+            default:
+                usage();
+                return null;
+        }
+    }
+
+    private static Algorithm.SubscriptOrder parseSubscriptOrder(String name) {
+        switch (name) {
+            case "first":
+                return Algorithm.SubscriptOrder.FIRST_APPEARANCE;
+            case "left-corner":
+                return Algorithm.SubscriptOrder.LEFT_CORNER;
+            default:
+                usage();
+                return null;
+        }
+    }
+
+    private static Recognizer compileRecognizer(String name, GrammarReader reader, Algorithm.GnfMode gnfMode) {
+        switch (name) {
+            case "cyk":
+                return CykRecognizer.compile(reader);
+            case "gnf":
+                return GnfRecognizer.compile(reader, gnfMode);
+            case "generated":
+                return RecognizerGenerator.compile(reader, gnfMode).load("GeneratedRecognizer");
+            default:
+                usage();
+                return null;
+        }
+    }
+
+    private static BinaryGrammar.Form parseBinaryForm(String name) {
+        switch (name) {
+            case "raw":
+                return BinaryGrammar.Form.RAW;
+            case "cnf":
+                return BinaryGrammar.Form.CNF;
+            case "gnf":
+                return BinaryGrammar.Form.GNF;
+            default:
+                usage();
+                return null;
+        }
+    }
+
+    private static Recognizer loadRecognizer(String name, BinaryGrammar binary) {
+        switch (name) {
+            case "cyk":
+                return binary.cnfRecognizer();
+            case "gnf":
+                return binary.gnfRecognizer();
+            case "generated":
+                return binary.recognizerGenerator().load("GeneratedRecognizer");
+            default:
+                usage();
+                return null;
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: Main [-i input | --batch dir-or-file [-j threads]] [-o output] [--metrics file|-]" +
+                " [--cache-dir dir] [--cache-size entries] [--gnf substitution|left-corner]" +
+                " [--subscript-order first|left-corner] [--parallel-substitution threads] [--no-intermediate]" +
+                " [--save-binary file [--binary-form raw|cnf|gnf]]" +
+                " [--max-productions count] [--max-symbols count] [--max-millis ms]" +
+                "\n       Main [-i input] --recognize words [--recognizer cyk|gnf|generated]" +
+                " [--gnf substitution|left-corner] [-j threads] [-o output]" +
+                "\n       Main [-i input] --generate-recognizer class-name [--gnf substitution|left-corner] [-o output]" +
+                "\n       Main --serve port [--max-concurrent conversions] [--timeout ms] [--cache-size entries]" +
+                " [--cache-dir dir] [--subscript-order first|left-corner] [--max-productions count] [--max-symbols count] [--max-millis ms]" +
+                "\n       --subscript-order left-corner keeps the first order where its own would not settle;" +
+                " neither is guaranteed to, so bound them with --max-millis, or with --max-productions and --max-symbols" +
+                "\n       Each limit left out is unlimited; a production limit alone does not stop terms from growing longer" +
+                "\n       A binary input saved as cnf or gnf is printed, or compiled by --recognize and" +
+                " --generate-recognizer, without conversion");
+        System.exit(2);
+    }
+
+}
@@ -0,0 +1,22 @@
+public class PhaseMetrics {
+
+    public final String phase;
+    public final long wallNanos;
+    public final long allocatedBytes;
+    public final int iterations;
+    public final GrammarStats grammar;
+
+    public PhaseMetrics(String phase, long wallNanos, long allocatedBytes, int iterations, GrammarStats grammar) {
+        this.phase = phase;
+        this.wallNanos = wallNanos;
+        this.allocatedBytes = allocatedBytes;
+        this.iterations = iterations;
+        this.grammar = grammar;
+    }
+
+    @Override
+    public String toString() {
+        return phase + ": " + wallNanos / 1000 + " us, " + allocatedBytes + " bytes, " + iterations + " iterations, "
+                + grammar;
+    }
+}
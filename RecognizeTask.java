@@ -0,0 +1,31 @@
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+class RecognizeTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Recognizer recognizer;
+    private final List<? extends CharSequence> inputs;
+    private final boolean[] result;
+    private final int from;
+    private final int to;
+
+    RecognizeTask(Recognizer recognizer, List<? extends CharSequence> inputs, boolean[] result, int from, int to) {
+        this.recognizer = recognizer;
+        this.inputs = inputs;
+        this.result = result;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from == 1) {
+            result[from] = recognizer.recognize(inputs.get(from));
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        invokeAll(new RecognizeTask(recognizer, inputs, result, from, middle),
+                new RecognizeTask(recognizer, inputs, result, middle, to));
+    }
+}
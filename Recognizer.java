@@ -0,0 +1,22 @@
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+// Membership test against a converted grammar. Implementations are immutable, so one instance can
+// serve any number of threads.
+public interface Recognizer {
+
+    boolean recognize(CharSequence input);
+
+    // Recognizes every input on pool; result[i] is the answer for inputs.get(i).
+    default boolean[] recognizeAll(List<? extends CharSequence> inputs, ForkJoinPool pool) {
+        boolean[] result = new boolean[inputs.size()];
+        if (pool.getParallelism() == 1 || inputs.size() <= 1) {
+            for (int i = 0; i < result.length; i++) {
+                result[i] = recognize(inputs.get(i));
+            }
+        } else {
+            pool.invoke(new RecognizeTask(this, inputs, result, 0, result.length));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,679 @@
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+// Writes the Java source of a Recognizer specialized to one grammar in Greibach normal form, and
+// compiles and loads it in memory. Every variable becomes a method returning the sorted end positions
+// of its derivations from a start position, memoized per position, with a switch on the terminal at
+// the start position selecting the productions; the terms after the leading terminal are unrolled
+// into loops over those end positions. Those methods recurse once per input symbol and their end
+// positions can take memory quadratic in the input, so past LONG_INPUT symbols the class runs the
+// search of GnfRecognizer instead, with a switch on the next symbol of every variable selecting the
+// productions to push. The hot path uses only int arrays.
+public class RecognizerGenerator {
+
+    // Productions of one variable and leading terminal beyond this many go to methods of their own,
+    // and the search switches on this many variables per method, which keeps every method under the
+    // JVM's code size limit. The search's position table is split into string constants of this many
+    // characters, which keeps each under the class file's constant size limit.
+    private static final int PRODUCTIONS_PER_METHOD = 32;
+    private static final int VARIABLES_PER_METHOD = 256;
+    private static final int CHARS_PER_CONSTANT = 8192;
+
+    // Inputs of more symbols than this are recognized by the search, which runs in constant stack
+    // depth and memory linear in the input for a given grammar, instead of by the memoized methods.
+    private static final int LONG_INPUT = 1024;
+
+    private final int start;
+    private final boolean acceptsEmpty;
+    private final int variableCount;
+    // Terminal names in index order, and productions[v][t] holding the terms of variable v led by
+    // terminal t with the lead dropped, variables as rule indexes and terminals as ~index.
+    private final List<String> terminals = new ArrayList<>();
+    private final int[][][][] productions;
+
+    // terms[rule][term] holds rule indexes for variables and ~symbol for terminals, as for
+    // GrammarCanonicalizer; every term must start with a terminal, except the start rule's empty term.
+    RecognizerGenerator(int startRule, int[][][] terms, IntFunction<String> terminalName) {
+        start = startRule;
+        variableCount = terms.length;
+        Map<String, Integer> terminalOf = new HashMap<>();
+        boolean empty = false;
+        List<List<List<int[]>>> grouped = new ArrayList<>();
+        for (int a = 0; a < terms.length; a++) {
+            List<List<int[]>> byLead = new ArrayList<>();
+            grouped.add(byLead);
+            for (int[] term : terms[a]) {
+                if (term.length == 0 && a == startRule) {
+                    empty = true;
+                    continue;
+                }
+                if (term.length == 0 || term[0] >= 0) {
+                    throw new IllegalArgumentException("Not in Greibach normal form: " + Arrays.toString(term));
+                }
+                int[] tail = new int[term.length - 1];
+                for (int k = 1; k < term.length; k++) {
+                    tail[k - 1] = term[k] >= 0 ? term[k] : ~terminalIndex(terminalName.apply(~term[k]), terminalOf);
+                }
+                int lead = terminalIndex(terminalName.apply(~term[0]), terminalOf);
+                while (byLead.size() <= lead) byLead.add(new ArrayList<>());
+                byLead.get(lead).add(tail);
+            }
+        }
+        acceptsEmpty = empty;
+        productions = new int[terms.length][terminals.size()][][];
+        for (int v = 0; v < terms.length; v++) {
+            for (int t = 0; t < terminals.size(); t++) {
+                List<List<int[]>> byLead = grouped.get(v);
+                productions[v][t] = t < byLead.size() ? byLead.get(t).toArray(new int[0][]) : new int[0][];
+            }
+        }
+    }
+
+    private int terminalIndex(String name, Map<String, Integer> terminalOf) {
+        Integer index = terminalOf.get(name);
+        if (index == null) {
+            index = terminals.size();
+            terminalOf.put(name, index);
+            terminals.add(name);
+        }
+        return index;
+    }
+
+    // Converts the grammar read from reader to GNF and prepares its recognizer. Throws
+    // IllegalArgumentException when the conversion leaves a term that starts with a variable.
+    public static RecognizerGenerator compile(GrammarReader reader, Algorithm.GnfMode gnfMode) {
+        Algorithm algorithm = new Algorithm(reader, new GrammarWriter(OutputStream.nullOutputStream()));
+        algorithm.setPrintIntermediate(false);
+        algorithm.setGnfMode(gnfMode);
+        algorithm.readData();
+        algorithm.toCNF();
+        algorithm.toGNF();
+        return algorithm.recognizerGenerator();
+    }
+
+    // The source of a public class named className in the default package that implements Recognizer
+    // and has a public no-argument constructor.
+    public String source(String className) {
+        StringBuilder out = new StringBuilder();
+        out.append("// Generated by RecognizerGenerator.\n");
+        out.append("public final class ").append(className).append(" implements Recognizer {\n\n");
+        out.append("    private static final int[] NONE = new int[0];\n\n");
+        appendRecognize(out);
+        appendTokenize(out);
+        if (start >= 0) {
+            appendRun(out);
+            appendSearch(out);
+        }
+        out.append("}\n");
+        return out.toString();
+    }
+
+    private void appendRecognize(StringBuilder out) {
+        out.append("    @Override\n");
+        out.append("    public boolean recognize(CharSequence input) {\n");
+        if (start < 0) {
+            out.append("        return false;\n");
+            out.append("    }\n\n");
+            return;
+        }
+        out.append("        int[] tokens = tokenize(input.toString());\n");
+        out.append("        if (tokens == null) return false;\n");
+        out.append("        if (tokens.length == 0) return ").append(acceptsEmpty).append(";\n");
+        out.append("        if (tokens.length > ").append(LONG_INPUT).append(") return new Search().run(tokens);\n");
+        out.append("        int[] ends = new Run(tokens).v").append(start).append("(0);\n");
+        out.append("        return ends.length != 0 && ends[ends.length - 1] == tokens.length;\n");
+        out.append("    }\n\n");
+    }
+
+    // Splits the input like grammar terms are split, so "a[1]" is one symbol.
+    private void appendTokenize(StringBuilder out) {
+        Map<Character, Integer> single = new TreeMap<>();
+        Map<String, Integer> named = new TreeMap<>();
+        for (int t = 0; t < terminals.size(); t++) {
+            String name = terminals.get(t);
+            if (name.length() == 1) {
+                single.put(name.charAt(0), t);
+            } else {
+                named.put(name, t);
+            }
+        }
+        out.append("    private static int[] tokenize(String input) {\n");
+        if (terminals.isEmpty()) {
+            // Both switches below would only return, leaving the rest of the loop unreachable.
+            out.append("        return input.isEmpty() ? new int[0] : null;\n");
+            out.append("    }\n\n");
+            return;
+        }
+        out.append("        int[] tokens = new int[input.length()];\n");
+        out.append("        int length = 0;\n");
+        out.append("        for (int i = 0; i < input.length(); i++) {\n");
+        out.append("            int end = i + 2;\n");
+        out.append("            if (end < input.length() && input.charAt(i + 1) == '[') {\n");
+        out.append("                while (end < input.length() && Character.isDigit(input.charAt(end))) end++;\n");
+        out.append("            }\n");
+        out.append("            int token;\n");
+        out.append("            if (end > i + 2 && end < input.length() && input.charAt(end) == ']') {\n");
+        out.append("                String name = input.substring(i, end + 1);\n");
+        out.append("                i = end;\n");
+        out.append("                switch (name) {\n");
+        for (Map.Entry<String, Integer> entry : named.entrySet()) {
+            out.append("                    case ").append(javaString(entry.getKey())).append(": token = ")
+                    .append(entry.getValue()).append("; break;\n");
+        }
+        out.append("                    default: return null;\n");
+        out.append("                }\n");
+        out.append("            } else {\n");
+        out.append("                switch (input.charAt(i)) {\n");
+        for (Map.Entry<Character, Integer> entry : single.entrySet()) {
+            out.append("                    case ").append(javaChar(entry.getKey())).append(": token = ")
+                    .append(entry.getValue()).append("; break;\n");
+        }
+        out.append("                    default: return null;\n");
+        out.append("                }\n");
+        out.append("            }\n");
+        out.append("            tokens[length++] = token;\n");
+        out.append("        }\n");
+        out.append("        return length == tokens.length ? tokens : java.util.Arrays.copyOf(tokens, length);\n");
+        out.append("    }\n\n");
+    }
+
+    // The memoized end positions of every variable from every start position, each computed on first
+    // use; a call recurses once per symbol it reads, which stays shallow below LONG_INPUT symbols.
+    private void appendRun(StringBuilder out) {
+        out.append("    private static final class Run {\n");
+        out.append("        private final int[] in;\n");
+        out.append("        private final int n;\n");
+        out.append("        private final int[][] memo;\n\n");
+        out.append("        Run(int[] in) {\n");
+        out.append("            this.in = in;\n");
+        out.append("            this.n = in.length;\n");
+        out.append("            this.memo = new int[").append(variableCount).append(" * (in.length + 1)][];\n");
+        out.append("        }\n");
+        for (int v = 0; v < variableCount; v++) {
+            appendMemo(out, v);
+        }
+        out.append(HELPERS);
+        out.append("    }\n\n");
+    }
+
+    private void appendMemo(StringBuilder out, int v) {
+        out.append("\n        int[] v").append(v).append("(int i) {\n");
+        out.append("            int[] r = memo[").append(v).append(" * (n + 1) + i];\n");
+        out.append("            if (r != null) return r;\n");
+        out.append("            r = NONE;\n");
+        out.append("            if (i < n) {\n");
+        out.append("                switch (in[i]) {\n");
+        List<int[]> split = new ArrayList<>();
+        for (int t = 0; t < terminals.size(); t++) {
+            int[][] led = productions[v][t];
+            if (led.length == 0) continue;
+            out.append("                    case ").append(t).append(":\n");
+            if (led.length <= PRODUCTIONS_PER_METHOD) {
+                appendEnds(out, led, 0, led.length, "                        ");
+            } else {
+                for (int from = 0; from < led.length; from += PRODUCTIONS_PER_METHOD) {
+                    out.append("                        r = union(r, v").append(v).append('_').append(t).append('_')
+                            .append(from / PRODUCTIONS_PER_METHOD).append("(i));\n");
+                    split.add(new int[]{t, from});
+                }
+            }
+            out.append("                        break;\n");
+        }
+        out.append("                    default:\n");
+        out.append("                        break;\n");
+        out.append("                }\n");
+        out.append("            }\n");
+        out.append("            memo[").append(v).append(" * (n + 1) + i] = r;\n");
+        out.append("            return r;\n");
+        out.append("        }\n");
+
+        for (int[] part : split) {
+            int[][] led = productions[v][part[0]];
+            out.append("\n        private int[] v").append(v).append('_').append(part[0]).append('_')
+                    .append(part[1] / PRODUCTIONS_PER_METHOD).append("(int i) {\n");
+            out.append("            int[] r = NONE;\n");
+            appendEnds(out, led, part[1], Math.min(led.length, part[1] + PRODUCTIONS_PER_METHOD), "            ");
+            out.append("            return r;\n");
+            out.append("        }\n");
+        }
+    }
+
+    // Adds the end positions of led[from..to) after their leading terminal at i to r.
+    private void appendEnds(StringBuilder out, int[][] led, int from, int to, String indent) {
+        for (int p = from; p < to; p++) {
+            int[] tail = led[p];
+            if (tail.length == 0) {
+                out.append(indent).append("r = union(r, new int[]{i + 1});\n");
+                continue;
+            }
+            out.append(indent).append("{\n");
+            out.append(indent).append("    int[] s = ").append(first(tail[0])).append(";\n");
+            for (int k = 1; k < tail.length; k++) {
+                if (tail[k] < 0) {
+                    out.append(indent).append("    s = match(s, ").append(~tail[k]).append(");\n");
+                } else {
+                    out.append(indent).append("    if (s.length == 1) {\n");
+                    out.append(indent).append("        s = v").append(tail[k]).append("(s[0]);\n");
+                    out.append(indent).append("    } else {\n");
+                    out.append(indent).append("        int[] t = NONE;\n");
+                    out.append(indent).append("        for (int j : s) t = union(t, v").append(tail[k]).append("(j));\n");
+                    out.append(indent).append("        s = t;\n");
+                    out.append(indent).append("    }\n");
+                }
+            }
+            out.append(indent).append("    r = union(r, s);\n");
+            out.append(indent).append("}\n");
+        }
+    }
+
+    private static String first(int symbol) {
+        return symbol >= 0
+                ? "v" + symbol + "(i + 1)"
+                : "i + 1 < n && in[i + 1] == " + ~symbol + " ? new int[]{i + 2} : NONE";
+    }
+
+    // The symbols after the leading terminal of every production are numbered positions, followed by
+    // the start variable alone as the initial frame; tailStart[v][t][p] is the position of the first
+    // symbol after the lead of productions[v][t][p], or -1 for a lone terminal.
+    private void appendSearch(StringBuilder out) {
+        int[][][] tailStart = new int[variableCount][terminals.size()][];
+        List<Integer> symbols = new ArrayList<>();
+        List<Boolean> last = new ArrayList<>();
+        for (int v = 0; v < variableCount; v++) {
+            for (int t = 0; t < terminals.size(); t++) {
+                int[][] led = productions[v][t];
+                tailStart[v][t] = new int[led.length];
+                for (int p = 0; p < led.length; p++) {
+                    tailStart[v][t][p] = led[p].length == 0 ? -1 : symbols.size();
+                    for (int k = 0; k < led[p].length; k++) {
+                        symbols.add(led[p][k]);
+                        last.add(k == led[p].length - 1);
+                    }
+                }
+            }
+        }
+        int startFrame = symbols.size();
+        symbols.add(start);
+        last.add(true);
+        int positions = symbols.size();
+
+        // Each position's symbol shifted left past a bit set when it ends its production, as two chars.
+        StringBuilder codes = new StringBuilder();
+        for (int position = 0; position < positions; position++) {
+            int code = symbols.get(position) << 1 | (last.get(position) ? 1 : 0);
+            codes.append((char) (code >>> 16)).append((char) code);
+        }
+        out.append("    private static final class Search {\n");
+        out.append("        private static final int[] CODES = codes(new String[]{\n");
+        for (int from = 0; from < codes.length(); from += CHARS_PER_CONSTANT) {
+            out.append("                ").append(javaString(codes.substring(from,
+                    Math.min(codes.length(), from + CHARS_PER_CONSTANT)))).append(",\n");
+        }
+        out.append("        });\n\n");
+        out.append("        private final int[] stamp = new int[").append(positions).append("];\n");
+        out.append("        private final int[] frameAt = new int[").append(positions).append("];\n");
+        out.append(SEARCH.replace("START_FRAME", String.valueOf(startFrame)));
+
+        out.append("\n        private void advance(int f, int token) {\n");
+        out.append("            int position = framePosition[f];\n");
+        out.append("            int code = CODES[position];\n");
+        out.append("            int next = (code & 1) != 0 ? -2 : position + 1;\n");
+        out.append("            if (code < 0) {\n");
+        out.append("                terminal(f, token, ~(code >> 1), next);\n");
+        out.append("                return;\n");
+        out.append("            }\n");
+        out.append("            switch ((code >> 1) / ").append(VARIABLES_PER_METHOD).append(") {\n");
+        for (int from = 0; from < variableCount; from += VARIABLES_PER_METHOD) {
+            out.append("                case ").append(from / VARIABLES_PER_METHOD).append(":\n");
+            out.append("                    w").append(from / VARIABLES_PER_METHOD)
+                    .append("(f, token, next, code >> 1);\n");
+            out.append("                    break;\n");
+        }
+        out.append("                default:\n");
+        out.append("                    break;\n");
+        out.append("            }\n");
+        out.append("        }\n");
+
+        for (int from = 0; from < variableCount; from += VARIABLES_PER_METHOD) {
+            out.append("\n        private void w").append(from / VARIABLES_PER_METHOD)
+                    .append("(int f, int token, int next, int v) {\n");
+            out.append("            switch (v) {\n");
+            for (int v = from; v < Math.min(variableCount, from + VARIABLES_PER_METHOD); v++) {
+                out.append("                case ").append(v).append(":\n");
+                out.append("                    v").append(v).append("(f, token, next);\n");
+                out.append("                    break;\n");
+            }
+            out.append("                default:\n");
+            out.append("                    break;\n");
+            out.append("            }\n");
+            out.append("        }\n");
+        }
+
+        for (int v = 0; v < variableCount; v++) {
+            appendVariable(out, v, tailStart[v]);
+        }
+        out.append("    }\n");
+    }
+
+    // Moves frame f, whose next symbol is variable v, past token: every production of v led by token
+    // starts a frame for its tail whose parent is the rest of f, or f's own parents when f ends at v.
+    private void appendVariable(StringBuilder out, int v, int[][] tailStart) {
+        List<int[]> split = new ArrayList<>();
+        out.append("\n        private void v").append(v).append("(int f, int token, int next) {\n");
+        out.append("            switch (token) {\n");
+        for (int t = 0; t < terminals.size(); t++) {
+            int[] led = tailStart[t];
+            if (led.length == 0) continue;
+            out.append("                case ").append(t).append(": {\n");
+            out.append("                    int rest = next == -2 ? -2 : continuation(f, next);\n");
+            if (led.length <= PRODUCTIONS_PER_METHOD) {
+                appendPushes(out, led, 0, led.length, "                    ");
+            } else {
+                for (int from = 0; from < led.length; from += PRODUCTIONS_PER_METHOD) {
+                    out.append("                    v").append(v).append('_').append(t).append('_')
+                            .append(from / PRODUCTIONS_PER_METHOD).append("(f, rest);\n");
+                    split.add(new int[]{t, from});
+                }
+            }
+            out.append("                    break;\n");
+            out.append("                }\n");
+        }
+        out.append("                default:\n");
+        out.append("                    break;\n");
+        out.append("            }\n");
+        out.append("        }\n");
+
+        for (int[] part : split) {
+            int[] led = tailStart[part[0]];
+            out.append("\n        private void v").append(v).append('_').append(part[0]).append('_')
+                    .append(part[1] / PRODUCTIONS_PER_METHOD).append("(int f, int rest) {\n");
+            appendPushes(out, led, part[1], Math.min(led.length, part[1] + PRODUCTIONS_PER_METHOD), "            ");
+            out.append("        }\n");
+        }
+    }
+
+    // Pushes led[from..to) after their leading terminal.
+    private static void appendPushes(StringBuilder out, int[] led, int from, int to, String indent) {
+        for (int p = from; p < to; p++) {
+            if (led[p] == -1) {
+                out.append(indent).append("proceed(f, rest);\n");
+            } else {
+                out.append(indent).append("push(f, rest, ").append(led[p]).append(");\n");
+            }
+        }
+    }
+
+    // The stack graph of one recognition, as in GnfRecognizer.Search: frames and parent edges are
+    // appended and never removed, and a frame is created once per step and position.
+    private static final String SEARCH = ""
+            + "\n"
+            + "        private static int[] codes(String[] parts) {\n"
+            + "            int length = 0;\n"
+            + "            for (String part : parts) length += part.length() / 2;\n"
+            + "            int[] codes = new int[length];\n"
+            + "            int k = 0;\n"
+            + "            for (String part : parts) {\n"
+            + "                for (int i = 0; i < part.length(); i += 2) {\n"
+            + "                    codes[k++] = part.charAt(i) << 16 | part.charAt(i + 1);\n"
+            + "                }\n"
+            + "            }\n"
+            + "            return codes;\n"
+            + "        }\n"
+            + "\n"
+            + "        private int[] framePosition = new int[16];\n"
+            + "        private int[] firstEdge = new int[16];\n"
+            + "        private int frameCount;\n"
+            + "        private int[] edgeTarget = new int[16];\n"
+            + "        private int[] nextEdge = new int[16];\n"
+            + "        private int edgeCount;\n"
+            + "        private int[] activeStamp = new int[16];\n"
+            + "        private int step;\n"
+            + "        private int[] active = new int[16];\n"
+            + "        private int activeCount;\n"
+            + "        private int[] next = new int[16];\n"
+            + "        private int nextCount;\n"
+            + "        private boolean accepting;\n"
+            + "\n"
+            + "        boolean run(int[] tokens) {\n"
+            + "            step = 1;\n"
+            + "            int root = frame(START_FRAME);\n"
+            + "            addEdge(root, -1);\n"
+            + "            activate(root);\n"
+            + "            for (int token : tokens) {\n"
+            + "                int[] swap = active;\n"
+            + "                active = next;\n"
+            + "                next = swap;\n"
+            + "                activeCount = nextCount;\n"
+            + "                nextCount = 0;\n"
+            + "                accepting = false;\n"
+            + "                step++;\n"
+            + "                for (int i = 0; i < activeCount; i++) {\n"
+            + "                    advance(active[i], token);\n"
+            + "                }\n"
+            + "                if (nextCount == 0 && !accepting) return false;\n"
+            + "            }\n"
+            + "            return accepting;\n"
+            + "        }\n"
+            + "\n"
+            + "        private void terminal(int f, int token, int terminal, int next) {\n"
+            + "            if (token != terminal) return;\n"
+            + "            if (next == -2) {\n"
+            + "                activateParents(f);\n"
+            + "            } else {\n"
+            + "                activate(continuation(f, next));\n"
+            + "            }\n"
+            + "        }\n"
+            + "\n"
+            + "        private void proceed(int f, int rest) {\n"
+            + "            if (rest == -2) {\n"
+            + "                activateParents(f);\n"
+            + "            } else {\n"
+            + "                activate(rest);\n"
+            + "            }\n"
+            + "        }\n"
+            + "\n"
+            + "        private void push(int f, int rest, int position) {\n"
+            + "            int g = frame(position);\n"
+            + "            if (rest == -2) {\n"
+            + "                for (int e = firstEdge[f]; e != -1; e = nextEdge[e]) addEdge(g, edgeTarget[e]);\n"
+            + "            } else {\n"
+            + "                addEdge(g, rest);\n"
+            + "            }\n"
+            + "            activate(g);\n"
+            + "        }\n"
+            + "\n"
+            + "        private int continuation(int f, int position) {\n"
+            + "            int g = frame(position);\n"
+            + "            for (int e = firstEdge[f]; e != -1; e = nextEdge[e]) addEdge(g, edgeTarget[e]);\n"
+            + "            return g;\n"
+            + "        }\n"
+            + "\n"
+            + "        private void activateParents(int f) {\n"
+            + "            for (int e = firstEdge[f]; e != -1; e = nextEdge[e]) activate(edgeTarget[e]);\n"
+            + "        }\n"
+            + "\n"
+            + "        private void activate(int f) {\n"
+            + "            if (f == -1) {\n"
+            + "                accepting = true;\n"
+            + "                return;\n"
+            + "            }\n"
+            + "            if (activeStamp[f] == step) return;\n"
+            + "            activeStamp[f] = step;\n"
+            + "            if (nextCount == next.length) next = java.util.Arrays.copyOf(next, nextCount * 2);\n"
+            + "            next[nextCount++] = f;\n"
+            + "        }\n"
+            + "\n"
+            + "        private int frame(int position) {\n"
+            + "            if (stamp[position] == step) return frameAt[position];\n"
+            + "            if (frameCount == framePosition.length) {\n"
+            + "                int capacity = frameCount * 2;\n"
+            + "                framePosition = java.util.Arrays.copyOf(framePosition, capacity);\n"
+            + "                firstEdge = java.util.Arrays.copyOf(firstEdge, capacity);\n"
+            + "                activeStamp = java.util.Arrays.copyOf(activeStamp, capacity);\n"
+            + "            }\n"
+            + "            int f = frameCount++;\n"
+            + "            framePosition[f] = position;\n"
+            + "            firstEdge[f] = -1;\n"
+            + "            stamp[position] = step;\n"
+            + "            frameAt[position] = f;\n"
+            + "            return f;\n"
+            + "        }\n"
+            + "\n"
+            + "        private void addEdge(int f, int target) {\n"
+            + "            for (int e = firstEdge[f]; e != -1; e = nextEdge[e]) {\n"
+            + "                if (edgeTarget[e] == target) return;\n"
+            + "            }\n"
+            + "            if (edgeCount == edgeTarget.length) {\n"
+            + "                edgeTarget = java.util.Arrays.copyOf(edgeTarget, edgeCount * 2);\n"
+            + "                nextEdge = java.util.Arrays.copyOf(nextEdge, edgeCount * 2);\n"
+            + "            }\n"
+            + "            edgeTarget[edgeCount] = target;\n"
+            + "            nextEdge[edgeCount] = firstEdge[f];\n"
+            + "            firstEdge[f] = edgeCount++;\n"
+            + "        }\n";
+
+    private static final String HELPERS = ""
+            + "\n"
+            + "        private int[] match(int[] s, int terminal) {\n"
+            + "            int[] t = new int[s.length];\n"
+            + "            int k = 0;\n"
+            + "            for (int j : s) {\n"
+            + "                if (j < n && in[j] == terminal) t[k++] = j + 1;\n"
+            + "            }\n"
+            + "            return k == 0 ? NONE : k == t.length ? t : java.util.Arrays.copyOf(t, k);\n"
+            + "        }\n"
+            + "\n"
+            + "        private static int[] union(int[] a, int[] b) {\n"
+            + "            if (a.length == 0 || a == b) return b;\n"
+            + "            if (b.length == 0) return a;\n"
+            + "            int[] c = new int[a.length + b.length];\n"
+            + "            int i = 0;\n"
+            + "            int j = 0;\n"
+            + "            int k = 0;\n"
+            + "            while (i < a.length && j < b.length) {\n"
+            + "                if (a[i] < b[j]) {\n"
+            + "                    c[k++] = a[i++];\n"
+            + "                } else if (a[i] > b[j]) {\n"
+            + "                    c[k++] = b[j++];\n"
+            + "                } else {\n"
+            + "                    c[k++] = a[i++];\n"
+            + "                    j++;\n"
+            + "                }\n"
+            + "            }\n"
+            + "            while (i < a.length) c[k++] = a[i++];\n"
+            + "            while (j < b.length) c[k++] = b[j++];\n"
+            + "            return k == c.length ? c : java.util.Arrays.copyOf(c, k);\n"
+            + "        }\n";
+
+    private static String javaString(String text) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (int i = 0; i < text.length(); i++) {
+            literal.append(escape(text.charAt(i)));
+        }
+        return literal.append('"').toString();
+    }
+
+    private static String javaChar(char ch) {
+        return "'" + escape(ch) + "'";
+    }
+
+    // Control characters as three-digit octal, since javac reads a unicode escape of a line break as
+    // the line break itself.
+    private static String escape(char ch) {
+        if (ch == '\'' || ch == '"' || ch == '\\') return "\\" + ch;
+        if (ch < 0x20 || ch == 0x7f) return String.format(Locale.ROOT, "\\%03o", (int) ch);
+        if (ch > 0x7f) return String.format(Locale.ROOT, "\\u%04x", (int) ch);
+        return String.valueOf(ch);
+    }
+
+    // Compiles source(className) with the platform compiler and returns a new instance. Needs a JDK;
+    // the compiled class sees the classes on java.class.path.
+    public Recognizer load(String className) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No Java compiler available; generated recognizers need a JDK");
+        }
+        SourceFile file = new SourceFile(className, source(className));
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        Map<String, ClassFile> classes = new HashMap<>();
+        StandardJavaFileManager standard = compiler.getStandardFileManager(diagnostics, Locale.ROOT, null);
+        ForwardingJavaFileManager<StandardJavaFileManager> manager = new ForwardingJavaFileManager<>(standard) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String name, JavaFileObject.Kind kind,
+                                                       FileObject sibling) {
+                ClassFile classFile = new ClassFile(name);
+                classes.put(name, classFile);
+                return classFile;
+            }
+        };
+        List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"), "-g:none");
+        boolean compiled = compiler.getTask(null, manager, diagnostics, options, null, List.of(file)).call();
+        if (!compiled) {
+            StringBuilder message = new StringBuilder("Generated recognizer does not compile:");
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                message.append('\n').append(diagnostic.getMessage(Locale.ROOT));
+            }
+            throw new IllegalStateException(message.toString());
+        }
+
+        ClassLoader loader = new ClassLoader(Recognizer.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                ClassFile classFile = classes.get(name);
+                if (classFile == null) throw new ClassNotFoundException(name);
+                byte[] bytes = classFile.bytes.toByteArray();
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+        };
+        try {
+            return (Recognizer) loader.loadClass(className).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load generated recognizer " + className, e);
+        }
+    }
+
+    private static class SourceFile extends SimpleJavaFileObject {
+        private final String source;
+
+        SourceFile(String className, String source) {
+            super(URI.create("string:///" + className + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+
+    private static class ClassFile extends SimpleJavaFileObject {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        ClassFile(String className) {
+            super(URI.create("bytes:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SymbolTable {
+
+    private static final int CHAR_CACHE_SIZE = 128;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final List<byte[]> encodedNames = new ArrayList<>();
+    private final int[] charIds = new int[CHAR_CACHE_SIZE];
+    private final BitSet inUse = new BitSet();
+    private int freshCursor;
+
+    public SymbolTable() {
+        Arrays.fill(charIds, -1);
+    }
+
+    public int intern(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+            encodedNames.add(null);
+        }
+        inUse.set(id);
+        return id;
+    }
+
+    public int intern(char ch) {
+        if (ch >= CHAR_CACHE_SIZE) {
+            return intern(String.valueOf(ch));
+        }
+        int id = charIds[ch];
+        if (id == -1) {
+            id = intern(String.valueOf(ch));
+            charIds[ch] = id;
+        } else {
+            inUse.set(id);
+        }
+        return id;
+    }
+
+    public int freshVariable() {
+        while (true) {
+            String name = freshName(freshCursor++);
+            if (!isInUse(name)) {
+                return intern(name);
+            }
+        }
+    }
+
+    public int freshVariable(String preferred) {
+        return isInUse(preferred) ? freshVariable() : intern(preferred);
+    }
+
+    // Forgets which names are in use, so fresh names are allocated as for a new table, while every
+    // name keeps its id. Lets successive conversions of an edited grammar share term arrays.
+    public void reset() {
+        inUse.clear();
+        freshCursor = 0;
+    }
+
+    private boolean isInUse(String name) {
+        Integer id = ids.get(name);
+        return id != null && inUse.get(id);
+    }
+
+    private static String freshName(int index) {
+        char letter = (char) ('A' + index % 26);
+        int round = index / 26;
+        return round == 0 ? String.valueOf(letter) : letter + "[" + round + "]";
+    }
+
+    public int find(String name) {
+        Integer id = ids.get(name);
+        return id == null || !inUse.get(id) ? -1 : id;
+    }
+
+    public String nameOf(int symbol) {
+        return names.get(symbol);
+    }
+
+    public byte[] bytesOf(int symbol) {
+        byte[] bytes = encodedNames.get(symbol);
+        if (bytes == null) {
+            bytes = names.get(symbol).getBytes(StandardCharsets.UTF_8);
+            encodedNames.set(symbol, bytes);
+        }
+        return bytes;
+    }
+
+    public int size() {
+        return names.size();
+    }
+}
@@ -0,0 +1,310 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+// The right-hand sides of one rule in insertion order, without duplicates. add rejects a term that is
+// already present and remove leaves a hole, so batches of removals and additions cost time in the
+// size of the batch; holes are closed on the next indexed access or once they outnumber the terms.
+// Most rules have a handful of terms, which are searched linearly until the set grows past SMALL.
+// freeze() moves a finished set into a trimmed TermTrie; reads then rebuild each term from the trie and
+// the first change moves the terms back into arrays.
+public class TermSet extends AbstractList<int[]> implements RandomAccess {
+
+    private static final int SMALL = 8;
+
+    private int[][] slots;
+    private int end;
+    private int size;
+    // Once the set grows past SMALL, an open-addressed table of slot + 1 for each term, 0 marking a free
+    // entry; removals shift later entries back instead of leaving markers.
+    private int[] positions;
+    // Holds the terms instead of slots while the set is frozen; shared, so never changed.
+    private TermTrie trie;
+
+    public TermSet() {
+        slots = new int[4][];
+    }
+
+    // Shares a trie returned by frozen(), so the new set starts out frozen.
+    public TermSet(TermTrie frozen) {
+        trie = frozen;
+        end = size = frozen.size();
+    }
+
+    public TermSet(Collection<int[]> terms) {
+        slots = new int[Math.max(4, terms.size())][];
+        for (int[] term : terms) {
+            add(term);
+        }
+    }
+
+    // Stores the terms in a trimmed trie, which frozen() returns for sharing with other sets.
+    public void freeze() {
+        if (trie != null) return;
+        TermTrie frozen = new TermTrie(this);
+        frozen.trimToSize();
+        trie = frozen;
+        slots = null;
+        positions = null;
+        end = size;
+    }
+
+    // The trie holding the terms, or null if the set is not frozen. A TermSet built from it shares it.
+    public TermTrie frozen() {
+        return trie;
+    }
+
+    @Override
+    public boolean add(int[] term) {
+        thaw();
+        int free = -1;
+        if (positions != null) {
+            free = entry(term);
+            if (positions[free] != 0) return false;
+        } else if (find(term) != -1) {
+            return false;
+        }
+        if (end == slots.length) {
+            if (size < end) {
+                compact();
+                if (positions != null) free = entry(term);
+            } else {
+                slots = Arrays.copyOf(slots, slots.length * 2);
+            }
+        }
+        slots[end] = term;
+        if (positions != null) positions[free] = end + 1;
+        end++;
+        size++;
+        if (positions == null ? size > SMALL : size * 2 > positions.length) index();
+        return true;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends int[]> terms) {
+        boolean changed = false;
+        for (int[] term : terms) {
+            if (add(term)) changed = true;
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) != -1;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof int[])) return false;
+        thaw();
+        int position = find((int[]) o);
+        if (position == -1) return false;
+        if (positions != null) unindex(slots[position]);
+        removeSlot(position);
+        return true;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> terms) {
+        boolean changed = false;
+        for (Object term : terms) {
+            if (remove(term)) changed = true;
+        }
+        return changed;
+    }
+
+    @Override
+    public int[] get(int index) {
+        checkIndex(index);
+        if (trie != null) return trie.get(index);
+        compact();
+        return slots[index];
+    }
+
+    // Replaces the term at index. If the new term is already present elsewhere the set keeps that
+    // occurrence and drops this one, so the following terms move down by one.
+    @Override
+    public int[] set(int index, int[] term) {
+        int[] old = get(index);
+        thaw();
+        int position = find(term);
+        if (position == index) return old;
+        if (positions != null) unindex(old);
+        if (position != -1) {
+            removeSlot(index);
+            compact();
+        } else {
+            slots[index] = term;
+            if (positions != null) positions[entry(term)] = index + 1;
+        }
+        return old;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof int[])) return -1;
+        if (trie != null) {
+            for (int i = 0; i < size; i++) {
+                if (Arrays.equals(trie.get(i), (int[]) o)) return i;
+            }
+            return -1;
+        }
+        compact();
+        return find((int[]) o);
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return indexOf(o);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        if (trie != null) {
+            trie = null;
+            slots = new int[4][];
+        } else {
+            Arrays.fill(slots, 0, end, null);
+        }
+        positions = null;
+        end = 0;
+        size = 0;
+    }
+
+    // Skips holes instead of closing them, so iterating does not undo the batching of removals.
+    @Override
+    public Iterator<int[]> iterator() {
+        return new Iterator<int[]>() {
+            private int next = skipHoles(0);
+            private int last = -1;
+
+            @Override
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            @Override
+            public int[] next() {
+                if (next >= end) throw new NoSuchElementException();
+                last = next;
+                next = skipHoles(next + 1);
+                return trie != null ? trie.get(last) : slots[last];
+            }
+
+            @Override
+            public void remove() {
+                if (last == -1) throw new IllegalStateException();
+                thaw();
+                if (positions != null) unindex(slots[last]);
+                slots[last] = null;
+                size--;
+                last = -1;
+            }
+        };
+    }
+
+    private int find(int[] term) {
+        if (positions != null) return positions[entry(term)] - 1;
+        for (int i = 0; i < end; i++) {
+            if (slots[i] != null && Arrays.equals(slots[i], term)) return i;
+        }
+        return -1;
+    }
+
+    private int skipHoles(int from) {
+        if (trie != null) return from;
+        while (from < end && slots[from] == null) from++;
+        return from;
+    }
+
+    private void removeSlot(int position) {
+        slots[position] = null;
+        size--;
+        if (size == 0) {
+            end = 0;
+        } else if (end - size > size) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        if (size == end) return;
+        int k = 0;
+        for (int i = 0; i < end; i++) {
+            if (slots[i] == null) continue;
+            slots[k++] = slots[i];
+        }
+        Arrays.fill(slots, k, end, null);
+        end = k;
+        if (positions != null) index();
+    }
+
+    // A frozen set has no holes, so positions in it stay valid after thawing.
+    private void thaw() {
+        if (trie == null) return;
+        slots = new int[Math.max(4, size)][];
+        for (int i = 0; i < size; i++) {
+            slots[i] = trie.get(i);
+        }
+        trie = null;
+        if (size > SMALL) index();
+    }
+
+    // Rebuilds positions at a load of at most a half.
+    private void index() {
+        positions = new int[Integer.highestOneBit(Math.max(SMALL, size) * 4)];
+        for (int i = 0; i < end; i++) {
+            if (slots[i] != null) positions[entry(slots[i])] = i + 1;
+        }
+    }
+
+    // The entry of positions holding term, or the free entry where it would go.
+    private int entry(int[] term) {
+        int mask = positions.length - 1;
+        int i = hash(term) & mask;
+        while (positions[i] != 0 && !Arrays.equals(slots[positions[i] - 1], term)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    // Removes term, which must be present and still in its slot, moving back each later entry of the
+    // run that may now sit closer to its home entry.
+    private void unindex(int[] term) {
+        int mask = positions.length - 1;
+        int hole = entry(term);
+        positions[hole] = 0;
+        for (int i = (hole + 1) & mask; positions[i] != 0; i = (i + 1) & mask) {
+            int home = hash(slots[positions[i] - 1]) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                positions[hole] = positions[i];
+                positions[i] = 0;
+                hole = i;
+            }
+        }
+    }
+
+    // Entries are picked by the low bits, so every symbol is spread over all of them.
+    private static int hash(int[] term) {
+        int h = term.length;
+        for (int symbol : term) {
+            h = (h + symbol) * 0x9E3779B1;
+        }
+        return h ^ h >>> 16;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// The right-hand sides of one rule as a prefix tree. Terms that share a prefix share its nodes, and adding
+// a term that is already present does nothing. Iteration follows insertion order.
+// After trimToSize() a node costs two ints and a term one, against an int[] per term in a TermSet.
+public class TermTrie extends AbstractCollection<int[]> {
+
+    public static final int ROOT = 0;
+
+    private int[] symbol = new int[8];
+    private int[] parent = new int[8];
+    private int nodeCount = 1;
+    // Nodes that end a term, in the order the terms were added.
+    private int[] ends = new int[4];
+    private int size;
+
+    // Only needed while adding; dropped by trimToSize() and rebuilt from parent on the next add.
+    // children is an open-addressed table of the nodes other than ROOT, hashed on parent and symbol,
+    // so a node with many children is searched in constant time; 0 marks a free slot.
+    private int[] children = new int[16];
+    // ordinal[node] is the position of node in ends + 1, or 0 if node does not end a term.
+    private int[] ordinal = new int[8];
+
+    public TermTrie() {
+        parent[ROOT] = -1;
+    }
+
+    public TermTrie(Iterable<int[]> terms) {
+        this();
+        for (int[] term : terms) {
+            add(term);
+        }
+    }
+
+    @Override
+    public boolean add(int[] term) {
+        return end(walk(ROOT, term, 0));
+    }
+
+    // Adds head followed by tail[from..] without allocating the concatenation.
+    public boolean add(int[] head, int[] tail, int from) {
+        return end(walk(walk(ROOT, head, 0), tail, from));
+    }
+
+    public int walk(int node, int[] symbols, int from) {
+        for (int i = from; i < symbols.length; i++) {
+            node = child(node, symbols[i]);
+        }
+        return node;
+    }
+
+    // The child of node for symbol, created if missing.
+    public int child(int node, int symbol) {
+        index();
+        int slot = slot(node, symbol);
+        if (children[slot] != 0) return children[slot];
+        if (nodeCount == this.symbol.length) grow();
+        int c = nodeCount++;
+        this.symbol[c] = symbol;
+        parent[c] = node;
+        ordinal[c] = 0;
+        children[slot] = c;
+        if (nodeCount * 2 > children.length) rehash(children.length * 2);
+        return c;
+    }
+
+    // Marks the path to node as a term; returns false if it already was one.
+    public boolean end(int node) {
+        index();
+        if (ordinal[node] != 0) return false;
+        if (size == ends.length) ends = Arrays.copyOf(ends, Math.max(4, size * 2));
+        ends[size++] = node;
+        ordinal[node] = size;
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof int[])) return false;
+        index();
+        int node = ROOT;
+        for (int s : (int[]) o) {
+            node = children[slot(node, s)];
+            if (node == 0) return false;
+        }
+        return ordinal[node] != 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public void clear() {
+        index();
+        if (nodeCount * 4 >= children.length) {
+            Arrays.fill(children, 0);
+        } else {
+            children = new int[16];
+        }
+        nodeCount = 1;
+        ordinal[ROOT] = 0;
+        size = 0;
+    }
+
+    @Override
+    public Iterator<int[]> iterator() {
+        return new Iterator<int[]>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public int[] next() {
+                if (next >= size) throw new NoSuchElementException();
+                return get(next++);
+            }
+        };
+    }
+
+    // The term added index-th, rebuilt from its path; reading does not touch the child links, so a
+    // trimmed trie can be read from several threads.
+    public int[] get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+        int node = ends[index];
+        int[] term = new int[length(node)];
+        for (int i = term.length - 1; i >= 0; i--, node = parent[node]) {
+            term[i] = symbol[node];
+        }
+        return term;
+    }
+
+    // Drops the spare capacity and the child links once the trie is complete.
+    public void trimToSize() {
+        symbol = Arrays.copyOf(symbol, nodeCount);
+        parent = Arrays.copyOf(parent, nodeCount);
+        ends = Arrays.copyOf(ends, size);
+        children = null;
+        ordinal = null;
+    }
+
+    private int length(int node) {
+        int length = 0;
+        for (; node != ROOT; node = parent[node]) length++;
+        return length;
+    }
+
+    private void index() {
+        if (children != null) return;
+        ordinal = new int[symbol.length];
+        for (int k = 0; k < size; k++) {
+            ordinal[ends[k]] = k + 1;
+        }
+        rehash(Math.max(16, Integer.highestOneBit(nodeCount) * 4));
+    }
+
+    // The slot of node's child for symbol, or the free slot where it would go.
+    private int slot(int node, int symbol) {
+        int mask = children.length - 1;
+        int h = (node * 31 + symbol) * 0x9E3779B1;
+        int i = (h ^ h >>> 16) & mask;
+        for (int c; (c = children[i]) != 0; i = (i + 1) & mask) {
+            if (parent[c] == node && this.symbol[c] == symbol) break;
+        }
+        return i;
+    }
+
+    private void rehash(int capacity) {
+        children = new int[capacity];
+        for (int c = 1; c < nodeCount; c++) {
+            children[slot(parent[c], symbol[c])] = c;
+        }
+    }
+
+    private void grow() {
+        int capacity = Math.max(8, symbol.length * 2);
+        symbol = Arrays.copyOf(symbol, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        ordinal = Arrays.copyOf(ordinal, capacity);
+    }
+}
@@ -0,0 +1,58 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Dense indexes for the terminals of a compiled grammar. Terminals named by one ASCII character are
+// looked up by character, the rest by name.
+class TerminalAlphabet {
+
+    private static final int ASCII = 128;
+
+    private final int[] ascii = new int[ASCII];
+    private final Map<String, Integer> named = new HashMap<>();
+    private int size;
+
+    TerminalAlphabet() {
+        Arrays.fill(ascii, -1);
+    }
+
+    // The index of the terminal, numbering it if it is new.
+    int add(String name) {
+        if (name.length() == 1 && name.charAt(0) < ASCII) {
+            if (ascii[name.charAt(0)] == -1) ascii[name.charAt(0)] = size++;
+            return ascii[name.charAt(0)];
+        }
+        Integer index = named.get(name);
+        if (index == null) {
+            index = size++;
+            named.put(name, index);
+        }
+        return index;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // The input split into symbols the way grammar terms are, so "a[1]" is one terminal; null if one
+    // of the symbols is not a terminal.
+    int[] tokenize(String input) {
+        int[] tokens = new int[input.length()];
+        int length = 0;
+        for (int i = 0; i < input.length(); i++) {
+            int end = Algorithm.findSubscriptEnd(input, i);
+            char ch = input.charAt(i);
+            int terminal;
+            if (end == -1 && ch < ASCII) {
+                terminal = ascii[ch];
+            } else {
+                Integer index = named.get(end == -1 ? String.valueOf(ch) : input.substring(i, end + 1));
+                terminal = index == null ? -1 : index;
+                if (end != -1) i = end;
+            }
+            if (terminal == -1) return null;
+            tokens[length++] = terminal;
+        }
+        return length == tokens.length ? tokens : Arrays.copyOf(tokens, length);
+    }
+}